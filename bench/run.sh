@@ -0,0 +1,44 @@
+#!/bin/sh
+# Times a benchmark script on the configurations it is compared across.
+#
+#   bench/run.sh bench/tail_call.lox
+#   bench/run.sh bench/print_lines.lox
+
+[ 1 = $# ] || { echo "Usage: bench/run.sh script"; exit 64; }
+
+root=$(cd "$(dirname "$0")/.." && pwd)
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+
+javac -d "$out/classes" $(find "$root/src" -name '*.java') || exit 1
+
+# runs jlox once with the given JVM flags and jlox flags, prints its time and last line
+run() {
+    java=$1
+    shift
+    start=$(date +%s%N)
+    java $java -cp "$out/classes" com.craftinginterpreters.lox.Lox "$@" "$script" > "$out/output" 2>&1
+    status=$?
+    end=$(date +%s%N)
+    printf '%-28s %6d ms  exit %d  %s\n' "$*" $(( (end - start) / 1000000 )) $status "$(tail -n 1 "$out/output")"
+}
+
+script=$1
+case "$(basename "$script")" in
+    tail_call.lox)
+        # a small host stack shows that tail calls don't grow it
+        run -Xss256k --engine=tree
+        run -Xss256k --no-jit
+        run -Xss256k --engine=closure
+        run -Xss256k --engine=vm
+        ;;
+    print_lines.lox)
+        run "" --engine=vm
+        run "" --engine=vm --flush=line
+        run "" --engine=vm --flush=exit
+        run "" --engine=vm --async-print
+        ;;
+    *)
+        run "" --engine=tree
+        ;;
+esac
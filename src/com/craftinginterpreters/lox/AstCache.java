@@ -0,0 +1,575 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Directory of resolved and optimized scripts, so running an unchanged script skips
+Scanner, Parser, Resolver and the Optimizer.
+
+An entry is named after VERSION and the SHA-256 of the source and of the class
+files jlox runs from, and repeats both in its header, so a build that parses,
+resolves or optimizes differently never loads the entries of another. An entry
+that is unreadable, truncated, for other bytes or of another version is ignored
+and overwritten. Entries are written to a temporary
+file first and moved in place, so concurrent runs never see half an entry.
+Scripts with compile errors are never stored.
+
+The tree is written in prefix order: one tag byte per node, then its Tokens,
+values and what the Resolver filled in, then its children. Tag 0 stands for
+a null node. What engines fill in at runtime is not stored. A lexeme is written
+the first time it is used and then referred to by its index, so loading an entry
+also shares one String per name.
+*/
+
+public class AstCache {
+    // bump whenever the layout of entries changes, changes to what they hold change BUILD
+    static final int VERSION = 1;
+    private static final int MAGIC = 0x4c4f5841; // "LOXA"
+
+    // node tags
+    private static final byte NULL = 0;
+    private static final byte LITERAL = 1, ASSIGN = 2, UNARY = 3, BINARY = 4, TERNARY = 5,
+                              GROUPING = 6, VARIABLE = 7, LOGICAL = 8, CALL = 9;
+    private static final byte EXPRESSION = 20, PRINT = 21, VAR = 22, BLOCK = 23, IF = 24, WHILE = 25,
+                              FOR = 26, BREAK = 27, CONTINUE = 28, FUNCTION = 29, RETURN = 30;
+
+    // literal value tags
+    private static final byte NIL = 0, FALSE = 1, TRUE = 2, NUMBER = 3, STRING = 4;
+
+    // digest of the class files of this build, empty when they can't be read
+    private static final byte[] BUILD = build();
+
+    private final Path directory;
+
+    AstCache(Path directory) {
+        this.directory = directory;
+    }
+
+    static byte[] hash(Source source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(BUILD);
+            source.digest(digest);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // the classes are either a directory tree or a jar, a jar is digested as a whole
+    private static byte[] build() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            Path location = Paths.get(AstCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (Files.isRegularFile(location)) {
+                digest.update(Files.readAllBytes(location));
+            } else {
+                Path classes = location.resolve(AstCache.class.getPackageName().replace('.', '/'));
+                List<Path> files = new ArrayList<>();
+                try (DirectoryStream<Path> list = Files.newDirectoryStream(classes, "*.class")) {
+                    for (Path file : list) {
+                        files.add(file);
+                    }
+                }
+                files.sort(null);
+                for (Path file : files) {
+                    digest.update(file.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+                    digest.update(Files.readAllBytes(file));
+                }
+            }
+            return digest.digest();
+        } catch (IOException | URISyntaxException | NoSuchAlgorithmException | RuntimeException e) {
+            return new byte[0];
+        }
+    }
+
+    private Path entry(byte[] hash) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : hash) {
+            name.append(String.format("%02x", b));
+        }
+        return directory.resolve(name.append("-v").append(VERSION).append(".ast").toString());
+    }
+
+    // the cached statements of the source with this hash, null when there is no valid entry
+    List<Stmt> load(byte[] hash) {
+        Path entry = entry(hash);
+        if (!Files.isRegularFile(entry)) { return null; }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            if (MAGIC != in.readInt() || VERSION != in.readInt()) { return null; }
+            byte[] stored = new byte[hash.length];
+            in.readFully(stored);
+            if (!Arrays.equals(hash, stored)) { return null; }
+
+            List<Stmt> statements = new Reader(in, Files.size(entry)).stmts();
+            if (-1 != in.read()) { return null; }
+            return statements;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // best effort, a cache that can't be written only costs the next run its parse
+    void store(byte[] hash, List<Stmt> statements) {
+        try {
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, "entry", ".tmp");
+            try {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.write(hash);
+                    new Writer(out).stmts(statements);
+                }
+                Files.move(temporary, entry(hash), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        } catch (IOException | UncheckedIOException ignored) { }
+    }
+
+    private static class Writer implements Expr.Visitor<Void>,
+                                           Stmt.Visitor<Void> {
+        private final DataOutputStream out;
+        private final Map<String, Integer> lexemes = new HashMap<>();
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void stmts(List<Stmt> stmts) {
+            integer(stmts.size());
+            for (Stmt stmt : stmts) {
+                stmt(stmt);
+            }
+        }
+
+        private void stmt(Stmt stmt) {
+            if   (null == stmt) { tag(NULL); }
+            else                { stmt.accept(this); }
+        }
+
+        private void expr(Expr expr) {
+            if   (null == expr) { tag(NULL); }
+            else                { expr.accept(this); }
+        }
+
+        private void token(Token token) {
+            try {
+                out.writeByte(token.type.ordinal());
+                Integer index = lexemes.putIfAbsent(token.lexeme(), lexemes.size());
+                if   (null == index) { out.writeInt(lexemes.size() - 1); string(token.lexeme()); }
+                else                 { out.writeInt(index); }
+                out.writeInt(token.line);
+                out.writeInt(token.column);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void string(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private void value(Object value) {
+            try {
+                if      (null == value)                { out.writeByte(NIL); }
+                else if (value instanceof Boolean b)   { out.writeByte(b ? TRUE : FALSE); }
+                else if (value instanceof Double d)    { out.writeByte(NUMBER); out.writeDouble(d); }
+                else                                   { out.writeByte(STRING); string((String)value); }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void tag(byte tag) {
+            try {
+                out.writeByte(tag);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void integer(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            tag(LITERAL);
+            value(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            tag(ASSIGN);
+            token(expr.name);
+            integer(expr.depth);
+            integer(expr.slot);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            tag(UNARY);
+            token(expr.operator);
+            expr(expr.expr);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            tag(BINARY);
+            token(expr.operator);
+            expr(expr.left);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitTernaryExpr(Expr.Ternary expr) {
+            tag(TERNARY);
+            expr(expr.condition);
+            expr(expr.first);
+            expr(expr.second);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            tag(GROUPING);
+            expr(expr.expr);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            tag(VARIABLE);
+            token(expr.name);
+            integer(expr.depth);
+            integer(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            tag(LOGICAL);
+            token(expr.operator);
+            expr(expr.left);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            tag(CALL);
+            token(expr.rightParen);
+            expr(expr.callee);
+            integer(expr.arguments.size());
+            for (Expr argument : expr.arguments) {
+                expr(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExprStmt(Stmt.Expression stmt) {
+            tag(EXPRESSION);
+            expr(stmt.expr);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            tag(PRINT);
+            expr(stmt.expr);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableStmt(Stmt.Variable stmt) {
+            tag(VAR);
+            token(stmt.name);
+            integer(stmt.slot);
+            expr(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            tag(BLOCK);
+            integer(stmt.frameSize);
+            stmts(stmt.stmts);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            tag(IF);
+            expr(stmt.condition);
+            stmt(stmt.ifBlock);
+            stmt(stmt.elseBlock);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            tag(WHILE);
+            expr(stmt.condition);
+            stmt(stmt.block);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt) {
+            tag(FOR);
+            integer(stmt.frameSize);
+            stmt(stmt.init);
+            expr(stmt.condition);
+            expr(stmt.increase);
+            stmt(stmt.block);
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(Stmt.Break stmt) {
+            tag(BREAK);
+            token(stmt.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitContinueStmt(Stmt.Continue stmt) {
+            tag(CONTINUE);
+            token(stmt.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function function) {
+            tag(FUNCTION);
+            token(function.name);
+            integer(function.slot);
+            integer(function.frameSize);
+            integer(function.params.size());
+            for (Token param : function.params) {
+                token(param);
+            }
+            stmts(function.body());
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            tag(RETURN);
+            token(stmt.keyword);
+            integer(stmt.inFunction ? 1 : 0);
+            expr(stmt.expr);
+            return null;
+        }
+    }
+
+    private static class Reader {
+        private static final TokenType[] TYPES = TokenType.values();
+
+        private final DataInputStream in;
+        private final long size; // of the entry, no count can be larger
+        private final List<String> lexemes = new ArrayList<>();
+
+        Reader(DataInputStream in, long size) {
+            this.in = in;
+            this.size = size;
+        }
+
+        List<Stmt> stmts() throws IOException {
+            int count = count();
+            List<Stmt> stmts = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                stmts.add(stmt());
+            }
+            return stmts;
+        }
+
+        private Stmt stmt() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NULL -> { return null; }
+                case EXPRESSION -> { return new Stmt.Expression(expr()); }
+                case PRINT -> { return new Stmt.Print(expr()); }
+                case VAR -> {
+                    Token name = token();
+                    int slot = in.readInt();
+                    Stmt.Variable stmt = new Stmt.Variable(name, expr());
+                    stmt.slot = slot;
+                    return stmt;
+                }
+                case BLOCK -> {
+                    int frameSize = count();
+                    Stmt.Block stmt = new Stmt.Block(stmts());
+                    stmt.frameSize = frameSize;
+                    return stmt;
+                }
+                case IF -> {
+                    Expr condition = expr();
+                    Stmt ifBlock = stmt();
+                    return new Stmt.If(condition, ifBlock, stmt());
+                }
+                case WHILE -> {
+                    Expr condition = expr();
+                    return new Stmt.While(condition, stmt());
+                }
+                case FOR -> {
+                    int frameSize = count();
+                    Stmt init = stmt();
+                    Expr condition = expr();
+                    Expr increase = expr();
+                    Stmt.For stmt = new Stmt.For(init, condition, increase, stmt());
+                    stmt.frameSize = frameSize;
+                    return stmt;
+                }
+                case BREAK -> { return new Stmt.Break(token()); }
+                case CONTINUE -> { return new Stmt.Continue(token()); }
+                case FUNCTION -> {
+                    Token name = token();
+                    int slot = in.readInt();
+                    int frameSize = count();
+                    int arity = count();
+                    List<Token> params = new ArrayList<>(arity);
+                    for (int i = 0; i < arity; ++i) {
+                        params.add(token());
+                    }
+                    Stmt.Function function = new Stmt.Function(name, params, stmts());
+                    function.slot = slot;
+                    function.frameSize = frameSize;
+                    return function;
+                }
+                case RETURN -> {
+                    Token keyword = token();
+                    boolean inFunction = 0 != in.readInt();
+                    Stmt.Return stmt = new Stmt.Return(keyword, expr());
+                    stmt.inFunction = inFunction;
+                    return stmt;
+                }
+                default -> throw new IOException("Bad statement tag " + tag);
+            }
+        }
+
+        private Expr expr() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case NULL -> { return null; }
+                case LITERAL -> { return new Expr.Literal(value()); }
+                case ASSIGN -> {
+                    Token name = token();
+                    int depth = in.readInt();
+                    int slot = in.readInt();
+                    Expr.Assign expr = new Expr.Assign(name, expr());
+                    expr.depth = depth;
+                    expr.slot = slot;
+                    return expr;
+                }
+                case UNARY -> {
+                    Token operator = token();
+                    return new Expr.Unary(operator, expr());
+                }
+                case BINARY -> {
+                    Token operator = token();
+                    Expr left = expr();
+                    return new Expr.Binary(left, operator, expr());
+                }
+                case TERNARY -> {
+                    Expr condition = expr();
+                    Expr first = expr();
+                    return new Expr.Ternary(condition, first, expr());
+                }
+                case GROUPING -> { return new Expr.Grouping(expr()); }
+                case VARIABLE -> {
+                    Expr.Variable expr = new Expr.Variable(token());
+                    expr.depth = in.readInt();
+                    expr.slot = in.readInt();
+                    return expr;
+                }
+                case LOGICAL -> {
+                    Token operator = token();
+                    Expr left = expr();
+                    return new Expr.Logical(left, operator, expr());
+                }
+                case CALL -> {
+                    Token rightParen = token();
+                    Expr callee = expr();
+                    int count = count();
+                    List<Expr> arguments = new ArrayList<>(count);
+                    for (int i = 0; i < count; ++i) {
+                        arguments.add(expr());
+                    }
+                    return new Expr.Call(callee, rightParen, arguments);
+                }
+                default -> throw new IOException("Bad expression tag " + tag);
+            }
+        }
+
+        private Token token() throws IOException {
+            TokenType type = TYPES[in.readUnsignedByte()];
+            int index = count();
+            if      (index == lexemes.size()) { lexemes.add(string()); }
+            else if (index > lexemes.size())  { throw new IOException("Bad lexeme " + index); }
+            String lexeme = lexemes.get(index);
+            int line = in.readInt();
+            return new Token(type, lexeme, null, line, in.readInt());
+        }
+
+        private Object value() throws IOException {
+            int tag = in.readUnsignedByte();
+            return switch (tag) {
+                case NIL -> null;
+                case FALSE -> false;
+                case TRUE -> true;
+                case NUMBER -> in.readDouble();
+                case STRING -> string();
+                default -> throw new IOException("Bad value tag " + tag);
+            };
+        }
+
+        private String string() throws IOException {
+            byte[] bytes = new byte[count()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // a length or count, one that can't fit in the entry can only come from a damaged one
+        private int count() throws IOException {
+            int count = in.readInt();
+            if (count < 0 || count > size) { throw new EOFException("Bad count " + count); }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// One step of the Optimizer pipeline, gets resolved statements and returns the rewritten ones
+public interface AstPass {
+    List<Stmt> run(List<Stmt> statements);
+}
@@ -22,17 +22,17 @@ public class AstPrinter implements Expr.Visitor<String>,
 
     @Override
     public String visitAssignExpr(Expr.Assign expr) {
-        return parenthesize("= " + expr.name.lexeme, expr.value);
+        return parenthesize("= " + expr.name.lexeme(), expr.value);
     }
 
     @Override
     public String visitUnaryExpr(Expr.Unary expr) {
-        return parenthesize(expr.operator.lexeme, expr.expr);
+        return parenthesize(expr.operator.lexeme(), expr.expr);
     }
 
     @Override
     public String visitBinaryExpr(Expr.Binary expr) {
-        return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+        return parenthesize(expr.operator.lexeme(), expr.left, expr.right);
     }
 
     @Override
@@ -47,16 +47,23 @@ public class AstPrinter implements Expr.Visitor<String>,
 
     @Override
     public String visitVariableExpr(Expr.Variable expr) {
-        return parenthesize(expr.name.lexeme);
+        return parenthesize(expr.name.lexeme());
     }
 
     @Override
     public String visitLogicalExpr(Expr.Logical expr) {
-        return "";
+        return parenthesize(expr.operator.lexeme(), expr.left, expr.right);
     }
 
     @Override
-    public String visitCallExpr(Expr.Call expr) { return null; }
+    public String visitCallExpr(Expr.Call expr) {
+        Expr[] exprs = new Expr[expr.arguments.size() + 1];
+        exprs[0] = expr.callee;
+        for (int i = 0; i < expr.arguments.size(); ++i) {
+            exprs[i + 1] = expr.arguments.get(i);
+        }
+        return parenthesize("Call", exprs);
+    }
 
     @Override
     public String visitExprStmt(Stmt.Expression stmt) {
@@ -70,7 +77,7 @@ public class AstPrinter implements Expr.Visitor<String>,
 
     @Override
     public String visitVariableStmt(Stmt.Variable stmt) {
-        return parenthesize("DecVar " + stmt.name.lexeme, stmt.initializer);
+        return parenthesize("DecVar " + stmt.name.lexeme(), stmt.initializer);
     }
 
     @Override
@@ -111,27 +118,53 @@ public class AstPrinter implements Expr.Visitor<String>,
 
     @Override
     public String visitWhileStmt(Stmt.While stmt) {
-        return "";
+        StringBuilder builder = new StringBuilder();
+        builder.append("( While (\n");
+        builder.append(parenthesize("Cond", stmt.condition));
+
+        builder.append("\nBody ");
+        builder.append(printOptional(stmt.block));
+        builder.append(")");
+
+        return builder.toString();
     }
 
     @Override
     public String visitForStmt(Stmt.For stmt) {
-        return "";
+        StringBuilder builder = new StringBuilder();
+        builder.append("( For (\n");
+        builder.append("Init ");
+        builder.append(printOptional(stmt.init));
+        builder.append('\n');
+        builder.append(parenthesize("Cond", stmt.condition));
+        builder.append('\n');
+        builder.append(parenthesize("Increase", stmt.increase));
+
+        builder.append("\nBody ");
+        builder.append(printOptional(stmt.block));
+        builder.append(")");
+
+        return builder.toString();
     }
 
     @Override
     public String visitBreakStmt(Stmt.Break stmt) {
-        return null;
+        return parenthesize("Break");
     }
 
     @Override
     public String visitContinueStmt(Stmt.Continue stmt) {
-        return null;
+        return parenthesize("Continue");
     }
 
     @Override
     public String visitReturnStmt(Stmt.Return stmt) {
-        return null;
+        return parenthesize("Return", stmt.expr);
+    }
+
+    private String printOptional(Stmt stmt) {
+        if   (null == stmt) { return "()"; }
+        else                { return new AstPrinter().printStmt(stmt); }
     }
 
     private String parenthesize(String name, Expr... exprs) {
@@ -152,6 +185,16 @@ public class AstPrinter implements Expr.Visitor<String>,
 
     @Override
     public String visitFunctionStmt(Stmt.Function function) {
-        return null;
+        StringBuilder builder = new StringBuilder();
+        builder.append("( Fun ").append(function.name.lexeme()).append(" (");
+        for (Token param : function.params) {
+            builder.append(' ').append(param.lexeme());
+        }
+        builder.append(" )\n");
+        if   (function.isParsed()) { builder.append(new AstPrinter().printStmt(new Stmt.Block(function.body()))); }
+        else                       { builder.append("{ not parsed yet }"); }
+        builder.append(")");
+
+        return builder.toString();
     }
 }
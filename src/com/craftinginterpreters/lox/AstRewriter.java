@@ -0,0 +1,217 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Base of the AstPasses that rewrite the tree.
+
+Every visit returns the node itself when nothing below it changed, otherwise a
+copy holding the new children and what the Resolver filled in. A statement
+rewritten to null is dropped from its list, engines already skip null children.
+*/
+
+public abstract class AstRewriter implements AstPass,
+                                             Expr.Visitor<Expr>,
+                                             Stmt.Visitor<Stmt> {
+    @Override
+    public List<Stmt> run(List<Stmt> statements) {
+        return rewrite(statements);
+    }
+
+    List<Stmt> rewrite(List<Stmt> stmts) {
+        List<Stmt> result = null; // copied on the first change
+        for (int i = 0; i < stmts.size(); ++i) {
+            Stmt stmt = stmts.get(i);
+            Stmt rewritten = rewrite(stmt);
+            if (rewritten != stmt && null == result) { result = new ArrayList<>(stmts.subList(0, i)); }
+            if (null != result && null != rewritten) { result.add(rewritten); }
+        }
+
+        if   (null == result) { return stmts; }
+        else                  { return result; }
+    }
+
+    Stmt rewrite(Stmt stmt) {
+        if   (null == stmt) { return null; }
+        else                { return stmt.accept(this); }
+    }
+
+    Expr rewrite(Expr expr) {
+        if   (null == expr) { return null; }
+        else                { return expr.accept(this); }
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = rewrite(expr.value);
+        if (value == expr.value) { return expr; }
+
+        Expr.Assign copy = new Expr.Assign(expr.name, value);
+        copy.depth = expr.depth;
+        copy.slot = expr.slot;
+        return copy;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr operand = rewrite(expr.expr);
+        if   (operand == expr.expr) { return expr; }
+        else                        { return new Expr.Unary(expr.operator, operand); }
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if   (left == expr.left && right == expr.right) { return expr; }
+        else                                            { return new Expr.Binary(left, expr.operator, right); }
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr) {
+        Expr condition = rewrite(expr.condition);
+        Expr first = rewrite(expr.first);
+        Expr second = rewrite(expr.second);
+        if   (condition == expr.condition && first == expr.first && second == expr.second) { return expr; }
+        else                                                                               { return new Expr.Ternary(condition, first, second); }
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr inner = rewrite(expr.expr);
+        if   (inner == expr.expr) { return expr; }
+        else                      { return new Expr.Grouping(inner); }
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if   (left == expr.left && right == expr.right) { return expr; }
+        else                                            { return new Expr.Logical(left, expr.operator, right); }
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = rewrite(expr.callee);
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        boolean changed = callee != expr.callee;
+        for (Expr argument : expr.arguments) {
+            Expr rewritten = rewrite(argument);
+            changed |= rewritten != argument;
+            arguments.add(rewritten);
+        }
+
+        if   (changed) { return new Expr.Call(callee, expr.rightParen, arguments); }
+        else           { return expr; }
+    }
+
+    @Override
+    public Stmt visitExprStmt(Stmt.Expression stmt) {
+        Expr expr = rewrite(stmt.expr);
+        if   (expr == stmt.expr) { return stmt; }
+        else                     { return new Stmt.Expression(expr); }
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expr = rewrite(stmt.expr);
+        if   (expr == stmt.expr) { return stmt; }
+        else                     { return new Stmt.Print(expr); }
+    }
+
+    @Override
+    public Stmt visitVariableStmt(Stmt.Variable stmt) {
+        Expr initializer = rewrite(stmt.initializer);
+        if (initializer == stmt.initializer) { return stmt; }
+
+        Stmt.Variable copy = new Stmt.Variable(stmt.name, initializer);
+        copy.slot = stmt.slot;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> stmts = rewrite(stmt.stmts);
+        if (stmts == stmt.stmts) { return stmt; }
+
+        Stmt.Block copy = new Stmt.Block(stmts);
+        copy.frameSize = stmt.frameSize;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt ifBlock = rewrite(stmt.ifBlock);
+        Stmt elseBlock = rewrite(stmt.elseBlock);
+        if   (condition == stmt.condition && ifBlock == stmt.ifBlock && elseBlock == stmt.elseBlock) { return stmt; }
+        else                                                                                          { return new Stmt.If(condition, ifBlock, elseBlock); }
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt block = rewrite(stmt.block);
+        if   (condition == stmt.condition && block == stmt.block) { return stmt; }
+        else                                                      { return new Stmt.While(condition, block); }
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        Stmt init = rewrite(stmt.init);
+        Expr condition = rewrite(stmt.condition);
+        Expr increase = rewrite(stmt.increase);
+        Stmt block = rewrite(stmt.block);
+        if (init == stmt.init && condition == stmt.condition && increase == stmt.increase && block == stmt.block) { return stmt; }
+
+        Stmt.For copy = new Stmt.For(init, condition, increase, block);
+        copy.frameSize = stmt.frameSize;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Stmt.Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function function) {
+        // a lazy body gets the passes once it is parsed
+        if (!function.isParsed()) { return function; }
+
+        List<Stmt> body = rewrite(function.body());
+        if (body == function.body()) { return function; }
+
+        Stmt.Function copy = new Stmt.Function(function.name, function.params, body);
+        copy.slot = function.slot;
+        copy.frameSize = function.frameSize;
+        return copy;
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr expr = rewrite(stmt.expr);
+        if (expr == stmt.expr) { return stmt; }
+
+        Stmt.Return copy = new Stmt.Return(stmt.keyword, expr);
+        copy.inFunction = stmt.inFunction;
+        return copy;
+    }
+}
@@ -0,0 +1,37 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Bytecode of a single function with its constant pool
+public class Chunk {
+    byte[] code = new byte[64];
+    Token[] tokens = new Token[64]; // token of the instruction at the same offset, for error reporting
+    Object[] constants = new Object[16];
+    int count = 0;
+    int constantCount = 0;
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    void write(byte value, Token token) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            tokens = Arrays.copyOf(tokens, count * 2);
+        }
+        code[count] = value;
+        tokens[count] = token;
+        count++;
+    }
+
+    int addConstant(Object value) {
+        Integer index = constantIndex.get(value);
+        if (null != index) { return index; }
+
+        if (constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        constantIndex.put(value, constantCount);
+        return constantCount++;
+    }
+}
@@ -0,0 +1,307 @@
+package com.craftinginterpreters.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Minimal class file emitter used by Jit.
+
+Classes are written with version 49 (Java 5), the last version that does not
+need StackMapTable frames, so branches only need their offsets patched and the
+JVM verifies the code by type inference.
+*/
+
+public class ClassFileWriter {
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL  = 0x0010;
+    static final int ACC_SUPER  = 0x0020;
+
+    static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, DCONST_0 = 0x0e, DCONST_1 = 0x0f;
+    static final int BIPUSH = 0x10, SIPUSH = 0x11, LDC2_W = 0x14;
+    static final int ALOAD = 0x19, DLOAD = 0x18, DSTORE = 0x39, AASTORE = 0x53;
+    static final int POP2 = 0x58, DUP = 0x59, DUP2 = 0x5c, DUP2_X2 = 0x5e;
+    static final int DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DNEG = 0x77;
+    static final int DCMPL = 0x97, DCMPG = 0x98;
+    static final int IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c, IFGT = 0x9d, IFLE = 0x9e;
+    static final int IF_ACMPEQ = 0xa5, IF_ACMPNE = 0xa6, GOTO = 0xa7;
+    static final int DRETURN = 0xaf, ARETURN = 0xb0, RETURN = 0xb1;
+    static final int GETSTATIC = 0xb2, PUTSTATIC = 0xb3, GETFIELD = 0xb4;
+    static final int INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, INVOKEINTERFACE = 0xb9;
+    static final int ANEWARRAY = 0xbd, ATHROW = 0xbf, CHECKCAST = 0xc0;
+
+    static class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<int[]> fixups = new ArrayList<>(); // {instruction start, operand offset}
+    }
+
+    class Code {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final List<Label> labels = new ArrayList<>();
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private int stack = 0;
+        private int maxStack = 0;
+        private int maxLocals;
+        private byte[] code;
+
+        private Code(int access, int name, int descriptor, int maxLocals) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.maxLocals = maxLocals;
+        }
+
+        Label label() {
+            Label label = new Label();
+            labels.add(label);
+            return label;
+        }
+
+        void op(int opcode, int stackEffect) {
+            bytes.write(opcode);
+            adjust(stackEffect);
+        }
+
+        void op(int opcode, int stackEffect, int u1) {
+            op(opcode, stackEffect);
+            bytes.write(u1);
+        }
+
+        void opShort(int opcode, int stackEffect, int u2) {
+            op(opcode, stackEffect);
+            writeShort(u2);
+        }
+
+        void local(int opcode, int stackEffect, int slot) {
+            if (slot > 255) { throw new IllegalStateException("Too many JVM locals"); }
+            op(opcode, stackEffect, slot);
+            maxLocals = Math.max(maxLocals, slot + 2);
+        }
+
+        void pushDouble(double value) {
+            if      (0.0 == value && 0 == Double.doubleToRawLongBits(value)) { op(DCONST_0, 2); }
+            else if (1.0 == value)                                           { op(DCONST_1, 2); }
+            else                                                             { opShort(LDC2_W, 2, doubleConstant(value)); }
+        }
+
+        void pushInt(int value) {
+            if      (value >= -1 && value <= 5)   { op(ICONST_0 + value, 1); }
+            else if (value >= -128 && value < 128) { op(BIPUSH, 1, value & 0xff); }
+            else                                   { opShort(SIPUSH, 1, value & 0xffff); }
+        }
+
+        void invokeInterface(int method, int argSlots, int stackEffect) {
+            opShort(INVOKEINTERFACE, stackEffect, method);
+            bytes.write(argSlots + 1);
+            bytes.write(0);
+        }
+
+        void jump(int opcode, int stackEffect, Label label) {
+            int start = bytes.size();
+            op(opcode, stackEffect);
+            if (-1 != label.position) {
+                writeShort(label.position - start);
+            } else {
+                label.fixups.add(new int[] {start, bytes.size()});
+                writeShort(0);
+            }
+            label.stack = stack;
+        }
+
+        void mark(Label label) {
+            label.position = bytes.size();
+            if (-1 != label.stack) { stack = label.stack; }
+            else                   { label.stack = stack; }
+        }
+
+        // after an unconditional jump or return the next instruction is only reached through a label
+        void unreachable() {
+            stack = 0;
+        }
+
+        private void adjust(int stackEffect) {
+            stack += stackEffect;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void writeShort(int value) {
+            bytes.write(value >> 8);
+            bytes.write(value);
+        }
+
+        private void finish() {
+            code = bytes.toByteArray();
+            if (code.length > Short.MAX_VALUE) { throw new IllegalStateException("Method too large"); }
+            for (Label label : labels) {
+                for (int[] fixup : label.fixups) {
+                    int offset = label.position - fixup[0];
+                    code[fixup[1]] = (byte)(offset >> 8);
+                    code[fixup[1] + 1] = (byte)offset;
+                }
+            }
+        }
+    }
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass;
+    private final int superClass;
+    private final int[] interfaces;
+    private final List<int[]> fields = new ArrayList<>();
+    private final List<Code> methods = new ArrayList<>();
+
+    ClassFileWriter(String name, String superName, String... interfaceNames) {
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+        interfaces = new int[interfaceNames.length];
+        for (int i = 0; i < interfaceNames.length; ++i) {
+            interfaces[i] = classRef(interfaceNames[i]);
+        }
+    }
+
+    int thisClass() {
+        return thisClass;
+    }
+
+    void field(int access, String name, String descriptor) {
+        fields.add(new int[] {access, utf8(name), utf8(descriptor)});
+    }
+
+    Code method(int access, String name, String descriptor, int argSlots) {
+        Code code = new Code(access, utf8(name), utf8(descriptor), argSlots);
+        methods.add(code);
+        return code;
+    }
+
+    int utf8(String value) {
+        Integer index = poolIndex.get("U" + value);
+        if (null != index) { return index; }
+        try {
+            poolOut.writeByte(1);
+            poolOut.writeUTF(value);
+        } catch (IOException error) {
+            throw new IllegalStateException(error);
+        }
+        return addEntry("U" + value, 1);
+    }
+
+    int classRef(String name) {
+        return entry("C" + name, 7, utf8(name), -1);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return entry("F" + owner + "." + name + descriptor, 9, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return entry("M" + owner + "." + name + descriptor, 10, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    int interfaceMethodRef(String owner, String name, String descriptor) {
+        return entry("I" + owner + "." + name + descriptor, 11, classRef(owner), nameAndType(name, descriptor));
+    }
+
+    int doubleConstant(double value) {
+        String key = "D" + Double.doubleToRawLongBits(value);
+        Integer index = poolIndex.get(key);
+        if (null != index) { return index; }
+        try {
+            poolOut.writeByte(6);
+            poolOut.writeDouble(value);
+        } catch (IOException error) {
+            throw new IllegalStateException(error);
+        }
+        int result = addEntry(key, 2);
+        return result;
+    }
+
+    byte[] toByteArray() {
+        int codeName = utf8("Code");
+        for (Code method : methods) {
+            method.finish();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int anInterface : interfaces) {
+                out.writeShort(anInterface);
+            }
+
+            out.writeShort(fields.size());
+            for (int[] field : fields) {
+                out.writeShort(field[0]);
+                out.writeShort(field[1]);
+                out.writeShort(field[2]);
+                out.writeShort(0);
+            }
+
+            out.writeShort(methods.size());
+            for (Code method : methods) {
+                out.writeShort(method.access);
+                out.writeShort(method.name);
+                out.writeShort(method.descriptor);
+                out.writeShort(1);
+                out.writeShort(codeName);
+                out.writeInt(12 + method.code.length);
+                out.writeShort(method.maxStack);
+                out.writeShort(method.maxLocals);
+                out.writeInt(method.code.length);
+                out.write(method.code);
+                out.writeShort(0);
+                out.writeShort(0);
+            }
+
+            out.writeShort(0);
+        } catch (IOException error) {
+            throw new IllegalStateException(error);
+        }
+        return bytes.toByteArray();
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        return entry("N" + name + ":" + descriptor, 12, utf8(name), utf8(descriptor));
+    }
+
+    private int entry(String key, int tag, int first, int second) {
+        Integer index = poolIndex.get(key);
+        if (null != index) { return index; }
+        try {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(first);
+            if (-1 != second) { poolOut.writeShort(second); }
+        } catch (IOException error) {
+            throw new IllegalStateException(error);
+        }
+        return addEntry(key, 1);
+    }
+
+    private int addEntry(String key, int size) {
+        int index = poolCount;
+        poolIndex.put(key, index);
+        poolCount += size;
+        if (poolCount > 0xffff) { throw new IllegalStateException("Constant pool overflow"); }
+        return index;
+    }
+}
@@ -0,0 +1,504 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Compiles resolved statements into a tree of pre-linked closures.
+
+Every node holds its children directly and has already picked the code for its
+operator, variable kind and frame depth, so running it does no visitor dispatch,
+no operator switch and no throw token bookkeeping. Nodes work on the same
+Environment frames and Globals as Interpreter.
+*/
+
+public class ClosureCompiler implements Expr.Visitor<ClosureCompiler.ExprNode>,
+                                        Stmt.Visitor<ClosureCompiler.StmtNode> {
+    interface ExprNode {
+        Object evaluate(Environment environment);
+    }
+
+    interface StmtNode {
+        void execute(Environment environment);
+    }
+
+    // break and continue, one instance per statement
+    static final class BreakStmt extends RuntimeException {
+        final Token keyword;
+
+        BreakStmt(Token keyword) {
+            super(null, null, false, false);
+            this.keyword = keyword;
+        }
+    }
+
+    static final class ContinueStmt extends RuntimeException {
+        final Token keyword;
+
+        ContinueStmt(Token keyword) {
+            super(null, null, false, false);
+            this.keyword = keyword;
+        }
+    }
+
+    // return with its value, the returning call catches it
+    static final class ReturnStmt extends RuntimeException {
+        final Object value;
+
+        ReturnStmt(Object value) {
+            super(null, null, false, false);
+            this.value = value;
+        }
+    }
+
+    // thrown by a call in return position to a compiled function, LoxFunction.invoke runs it in place of the returning frame
+    static final class TailCall extends RuntimeException {
+        final LoxFunction function;
+        final Environment frame;
+
+        TailCall(LoxFunction function, Environment frame) {
+            super(null, null, false, false);
+            this.function = function;
+            this.frame = frame;
+        }
+    }
+
+    private static final ExprNode NIL = environment -> null;
+    private static final StmtNode NO_OP = environment -> { };
+
+    private final Globals globals;
+    private final Interpreter interpreter; // runs functions that were not compiled, null when every function is
+    private Token lastToken = null; // token used for errors of nodes without one, like the interpreter does
+
+    ClosureCompiler(Globals globals) {
+        this(globals, null);
+    }
+
+    ClosureCompiler(Globals globals, Interpreter interpreter) {
+        this.globals = globals;
+        this.interpreter = interpreter;
+    }
+
+    StmtNode[] compile(List<Stmt> statements) {
+        List<StmtNode> nodes = new ArrayList<>(statements.size());
+        for (Stmt statement : statements) {
+            if (null != statement) { nodes.add(statement.accept(this)); }
+        }
+        return nodes.toArray(new StmtNode[0]);
+    }
+
+    StmtNode compile(Stmt statement) {
+        if   (null == statement) { return NO_OP; }
+        else                     { return statement.accept(this); }
+    }
+
+    ExprNode compile(Expr expr) {
+        if   (null == expr) { return NIL; }
+        else                { return expr.accept(this); }
+    }
+
+    @Override
+    public StmtNode visitExprStmt(Stmt.Expression stmt) {
+        ExprNode expr = compile(stmt.expr);
+        return expr::evaluate;
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print stmt) {
+        ExprNode expr = compile(stmt.expr);
+        return environment -> Output.print(expr.evaluate(environment));
+    }
+
+    @Override
+    public StmtNode visitVariableStmt(Stmt.Variable stmt) {
+        ExprNode initializer = compile(stmt.initializer);
+        Token name = stmt.name;
+        int slot = stmt.slot;
+
+        if   (-1 == slot) { return environment -> globals.define(name, initializer.evaluate(environment)); }
+        else              { return environment -> environment.define(slot, initializer.evaluate(environment)); }
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt) {
+        StmtNode block = sequence(compile(stmt.stmts));
+        int frameSize = stmt.frameSize;
+
+        if   (0 == frameSize) { return block; }
+        else                  { return environment -> block.execute(new Environment(environment, frameSize)); }
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt) {
+        ExprNode condition = compile(stmt.condition);
+        Token token = lastToken;
+        StmtNode ifBlock = compile(stmt.ifBlock);
+
+        if (null == stmt.elseBlock) {
+            return environment -> {
+                if (Operators.isTruthy(condition.evaluate(environment), token)) { ifBlock.execute(environment); }
+            };
+        }
+
+        StmtNode elseBlock = compile(stmt.elseBlock);
+        return environment -> {
+            if   (Operators.isTruthy(condition.evaluate(environment), token)) { ifBlock.execute(environment); }
+            else                                                               { elseBlock.execute(environment); }
+        };
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt) {
+        return compileLoop(stmt.condition, stmt.block, null);
+    }
+
+    @Override
+    public StmtNode visitForStmt(Stmt.For stmt) {
+        StmtNode init = compile(stmt.init);
+        StmtNode loop = compileLoop(stmt.condition, stmt.block, stmt.increase);
+        int frameSize = stmt.frameSize;
+
+        if (0 == frameSize) {
+            return environment -> {
+                init.execute(environment);
+                loop.execute(environment);
+            };
+        } else {
+            return environment -> {
+                Environment frame = new Environment(environment, frameSize);
+                init.execute(frame);
+                loop.execute(frame);
+            };
+        }
+    }
+
+    // a loop from its condition check on, entered with the frame of a for loop already set up
+    StmtNode compileLoop(Expr conditionExpr, Stmt blockStmt, Expr increaseExpr) {
+        ExprNode condition = compile(conditionExpr);
+        Token token = lastToken;
+        StmtNode block = compile(blockStmt);
+
+        if (null == increaseExpr) {
+            return environment -> {
+                try {
+                    while (Operators.isTruthy(condition.evaluate(environment), token)) {
+                        try {
+                            block.execute(environment);
+                        } catch (ContinueStmt ignored) { }
+                    }
+                } catch (BreakStmt ignored) { }
+            };
+        }
+
+        ExprNode increase = compile(increaseExpr);
+        return environment -> {
+            try {
+                while (Operators.isTruthy(condition.evaluate(environment), token)) {
+                    try {
+                        block.execute(environment);
+                    } catch (ContinueStmt ignored) { }
+                    increase.evaluate(environment);
+                }
+            } catch (BreakStmt ignored) { }
+        };
+    }
+
+    @Override
+    public StmtNode visitBreakStmt(Stmt.Break stmt) {
+        // stackless and allocated once, a throw caught in the same compiled loop is just a jump
+        BreakStmt signal = new BreakStmt(stmt.keyword);
+        return environment -> { throw signal; };
+    }
+
+    @Override
+    public StmtNode visitContinueStmt(Stmt.Continue stmt) {
+        ContinueStmt signal = new ContinueStmt(stmt.keyword);
+        return environment -> { throw signal; };
+    }
+
+    @Override
+    public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+        StmtNode[] body = compile(stmt.body());
+        Token name = stmt.name;
+        int slot = stmt.slot;
+
+        if   (-1 == slot) { return environment -> globals.define(name, new LoxFunction(stmt, body)); }
+        else              { return environment -> environment.define(slot, new LoxFunction(stmt, body)); }
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Stmt.Return stmt) {
+        if (!stmt.inFunction) {
+            Token keyword = stmt.keyword;
+            return environment -> { throw Operators.error(keyword, "Cannot return from top level code"); };
+        }
+        if (stmt.expr instanceof Expr.Call call) { return compileTailCall(call); }
+
+        ExprNode value = compile(stmt.expr);
+        return environment -> { throw new ReturnStmt(value.evaluate(environment)); };
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return environment -> value;
+    }
+
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign expr) {
+        ExprNode value = compile(expr.value);
+        Token name = expr.name;
+        int depth = expr.depth;
+        int slot = expr.slot;
+        lastToken = name;
+
+        return switch (depth) {
+            case -1 -> new ExprNode() {
+                private Globals.Cell cell = null;
+
+                @Override
+                public Object evaluate(Environment environment) {
+                    Object result = value.evaluate(environment);
+                    if (null == cell) { cell = globals.cell(name); }
+                    cell.value = result;
+                    return result;
+                }
+            };
+            case 0 -> environment -> {
+                Object result = value.evaluate(environment);
+                environment.assign(slot, result);
+                return result;
+            };
+            default -> environment -> {
+                Object result = value.evaluate(environment);
+                environment.assignAt(depth, slot, result);
+                return result;
+            };
+        };
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr) {
+        ExprNode operand = compile(expr.expr);
+        Token operator = expr.operator;
+        lastToken = operator;
+
+        return switch (operator.type) {
+            case MINUS -> environment -> -Operators.number(operand.evaluate(environment), operator);
+            case BANG  -> environment -> !Operators.isTruthy(operand.evaluate(environment), operator);
+            default -> throw new IllegalStateException("Unknown Unary Operator " + operator.lexeme());
+        };
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+        lastToken = operator;
+
+        return switch (operator.type) {
+            case PLUS -> environment -> {
+                Object l = left.evaluate(environment);
+                Object r = right.evaluate(environment);
+                if (l instanceof Double a && r instanceof Double b) { return a + b; }
+                return Operators.plus(l, r, operator);
+            };
+            case MINUS -> environment -> {
+                Object l = left.evaluate(environment);
+                Object r = right.evaluate(environment);
+                return Operators.number(l, operator) - Operators.number(r, operator);
+            };
+            case STAR -> environment -> {
+                Object l = left.evaluate(environment);
+                Object r = right.evaluate(environment);
+                return Operators.multiply(l, r, operator);
+            };
+            case SLASH -> environment -> {
+                Object l = left.evaluate(environment);
+                Object r = right.evaluate(environment);
+                return Operators.divide(l, r, operator);
+            };
+            case COMMA -> environment -> {
+                left.evaluate(environment);
+                return right.evaluate(environment);
+            };
+            case GREATER -> environment -> {
+                Object l = left.evaluate(environment);
+                Object r = right.evaluate(environment);
+                return Operators.number(l, operator) > Operators.number(r, operator);
+            };
+            case GREATER_EQUAL -> environment -> {
+                Object l = left.evaluate(environment);
+                Object r = right.evaluate(environment);
+                return Operators.number(l, operator) >= Operators.number(r, operator);
+            };
+            case LESS -> environment -> {
+                Object l = left.evaluate(environment);
+                Object r = right.evaluate(environment);
+                return Operators.number(l, operator) < Operators.number(r, operator);
+            };
+            case LESS_EQUAL -> environment -> {
+                Object l = left.evaluate(environment);
+                Object r = right.evaluate(environment);
+                return Operators.number(l, operator) <= Operators.number(r, operator);
+            };
+            case BANG_EQUAL -> environment -> {
+                Object l = left.evaluate(environment);
+                Object r = right.evaluate(environment);
+                return !Operators.isEqual(l, r);
+            };
+            case EQUAL_EQUAL -> environment -> {
+                Object l = left.evaluate(environment);
+                Object r = right.evaluate(environment);
+                return Operators.isEqual(l, r);
+            };
+            default -> throw new IllegalStateException("Unknown Binary Operator " + operator.lexeme());
+        };
+    }
+
+    @Override
+    public ExprNode visitTernaryExpr(Expr.Ternary expr) {
+        ExprNode condition = compile(expr.condition);
+        Token token = lastToken;
+        ExprNode first = compile(expr.first);
+        ExprNode second = compile(expr.second);
+
+        // all three operands are evaluated, like the tree walking interpreter does
+        return environment -> {
+            boolean truthy = Operators.isTruthy(condition.evaluate(environment), token);
+            Object a = first.evaluate(environment);
+            Object b = second.evaluate(environment);
+            return truthy ? a : b;
+        };
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expr);
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable expr) {
+        Token name = expr.name;
+        int depth = expr.depth;
+        int slot = expr.slot;
+        lastToken = name;
+
+        return switch (depth) {
+            case -1 -> new ExprNode() {
+                private Globals.Cell cell = null; // looked up on first use, the global may be defined later
+
+                @Override
+                public Object evaluate(Environment environment) {
+                    if (null == cell) { cell = globals.cell(name); }
+                    return cell.value;
+                }
+            };
+            case 0  -> environment -> environment.get(slot);
+            case 1  -> environment -> environment.getAt(1, slot);
+            default -> environment -> environment.getAt(depth, slot);
+        };
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+        lastToken = operator;
+
+        if (TokenType.AND == operator.type) {
+            return environment -> Operators.isTruthy(left.evaluate(environment), operator)
+                               && Operators.isTruthy(right.evaluate(environment), operator);
+        } else {
+            return environment -> Operators.isTruthy(left.evaluate(environment), operator)
+                               || Operators.isTruthy(right.evaluate(environment), operator);
+        }
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Expr.Call expr) {
+        ExprNode callee = compile(expr.callee);
+        ExprNode[] args = compileArguments(expr.arguments);
+        Token paren = expr.rightParen;
+        lastToken = paren;
+
+        return environment -> {
+            Object function = callee.evaluate(environment);
+
+            if   (isDirectCall(function, args)) { return ((LoxFunction)function).invoke(bind((LoxFunction)function, args, environment)); }
+            else                                { return genericCall(function, args, environment, paren); }
+        };
+    }
+
+    private StmtNode compileTailCall(Expr.Call expr) {
+        ExprNode callee = compile(expr.callee);
+        ExprNode[] args = compileArguments(expr.arguments);
+        Token paren = expr.rightParen;
+        lastToken = paren;
+
+        return environment -> {
+            Object function = callee.evaluate(environment);
+
+            if   (isDirectCall(function, args)) { throw new TailCall((LoxFunction)function, bind((LoxFunction)function, args, environment)); }
+            else                                { throw new ReturnStmt(genericCall(function, args, environment, paren)); }
+        };
+    }
+
+    private ExprNode[] compileArguments(List<Expr> arguments) {
+        ExprNode[] args = new ExprNode[arguments.size()];
+        for (int i = 0; i < args.length; ++i) {
+            args[i] = compile(arguments.get(i));
+        }
+        return args;
+    }
+
+    private static boolean isDirectCall(Object function, ExprNode[] args) {
+        return function instanceof LoxFunction lox && lox.isCompiled() && lox.arity() == args.length;
+    }
+
+    // arguments go straight into the callee frame
+    private static Environment bind(LoxFunction function, ExprNode[] args, Environment environment) {
+        Environment frame = new Environment(null, function.declaration.frameSize());
+        for (int i = 0; i < args.length; ++i) {
+            frame.define(i, args[i].evaluate(environment));
+        }
+        return frame;
+    }
+
+    private Object genericCall(Object function, ExprNode[] args, Environment environment, Token paren) {
+        List<Object> values = new ArrayList<>(args.length);
+        for (ExprNode arg : args) {
+            values.add(arg.evaluate(environment));
+        }
+        if (function instanceof LoxCallable callable) {
+            if (callable.arity() != values.size()) {
+                throw Operators.error(paren, String.format("Expect %d but get %d arguments", callable.arity(), values.size()));
+            }
+            return callable.call(interpreter, values);
+        } else {
+            throw Operators.error(paren, "Can only call on functions and classes");
+        }
+    }
+
+    private static StmtNode sequence(StmtNode[] nodes) {
+        switch (nodes.length) {
+            case 0: return NO_OP;
+            case 1: return nodes[0];
+            case 2: {
+                StmtNode first = nodes[0];
+                StmtNode second = nodes[1];
+                return environment -> {
+                    first.execute(environment);
+                    second.execute(environment);
+                };
+            }
+            default: return environment -> {
+                for (StmtNode node : nodes) {
+                    node.execute(environment);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// Runs statements through ClosureCompiler instead of visiting the AST on every evaluation
+public class ClosureEngine implements Engine {
+    final Globals globals = new Globals();
+    private final ClosureCompiler compiler = new ClosureCompiler(globals);
+
+    ClosureEngine() {
+        globals.defineNatives();
+    }
+
+    @Override
+    public void interpret(List<Stmt> statements) {
+        try {
+            // inside the try, compiling a lazy function body can fail
+            ClosureCompiler.StmtNode[] program = compiler.compile(statements);
+            for (ClosureCompiler.StmtNode node : program) {
+                node.execute(null);
+            }
+        } catch (RuntimeError error) {
+            ErrorReporter.error(error);
+        } catch (ClosureCompiler.BreakStmt error) {
+            ErrorReporter.error(Operators.error(error.keyword, "No loop to catch break statement"));
+        } catch (ClosureCompiler.ContinueStmt error) {
+            ErrorReporter.error(Operators.error(error.keyword, "No loop to catch continue statement"));
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.craftinginterpreters.lox;
+
+// Function value of the VM engine
+public class CompiledFunction {
+    final String name;
+    final int arity;
+    final Chunk chunk = new Chunk();
+    int localCount = 0; // slots reserved for params and locals
+    int stackSize = 0;  // maximum depth of the operand stack above the locals
+
+    CompiledFunction(String name, int arity) {
+        this.name = name;
+        this.arity = arity;
+    }
+
+    int frameSize() {
+        return localCount + stackSize;
+    }
+
+    @Override
+    public String toString() {
+        return "<fn>$" + name;
+    }
+}
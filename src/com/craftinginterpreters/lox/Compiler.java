@@ -0,0 +1,490 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Compiles resolved statements into bytecode for the VM.
+
+Each function owns a flat array of local slots: params first, then every block local.
+Blocks reuse the slots of their finished siblings, so no instruction is needed to
+enter or leave a scope. Top level declarations outside any block are globals.
+*/
+
+public class Compiler implements Expr.Visitor<Void>,
+                                 Stmt.Visitor<Void> {
+    private static class CompileException extends RuntimeException {}
+
+    private static class Local {
+        final String name;
+        final int depth;
+        final int slot;
+
+        Local(String name, int depth, int slot) {
+            this.name = name;
+            this.depth = depth;
+            this.slot = slot;
+        }
+    }
+
+    private static class Loop {
+        final Loop enclosing;
+        final List<Integer> breakJumps = new ArrayList<>();
+        final List<Integer> continueJumps = new ArrayList<>();
+        int continueTarget = -1; // -1 while the target is not emitted yet
+
+        Loop(Loop enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    private CompiledFunction function;
+    private List<Local> locals = new ArrayList<>();
+    private int scopeDepth = 0;
+    private int stackDepth = 0;
+    private Loop loop = null;
+    private boolean inFunction = false;
+    private Token currentToken = null;
+
+    CompiledFunction compile(List<Stmt> statements) {
+        function = new CompiledFunction("script", 0);
+        try {
+            for (Stmt statement : statements) {
+                compile(statement);
+            }
+            emit(OpCode.NIL, 1);
+            emit(OpCode.RETURN, -1);
+            return function;
+        } catch (CompileException error) {
+            return null;
+        }
+    }
+
+    private void compile(Stmt statement) {
+        if (null != statement) { statement.accept(this); }
+    }
+
+    private void compile(Expr expr) {
+        if   (null == expr) { emit(OpCode.NIL, 1); }
+        else                { expr.accept(this); }
+    }
+
+    @Override
+    public Void visitExprStmt(Stmt.Expression stmt) {
+        // an assignment to a local as a statement does not need to keep its value
+        if (stmt.expr instanceof Expr.Assign assign) {
+            Local local = resolveLocal(assign.name);
+            if (null != local) {
+                compile(assign.value);
+                currentToken = assign.name;
+                emitByte(OpCode.DEFINE_LOCAL, -1, local.slot);
+                return null;
+            }
+        }
+
+        compile(stmt.expr);
+        emit(OpCode.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expr);
+        emit(OpCode.PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableStmt(Stmt.Variable stmt) {
+        compile(stmt.initializer);
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.stmts) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        int elseJump = compileCondition(stmt.condition);
+        compile(stmt.ifBlock);
+
+        if (null != stmt.elseBlock) {
+            int endJump = emitJump(OpCode.JUMP, 0);
+            patchJump(elseJump);
+            compile(stmt.elseBlock);
+            patchJump(endJump);
+        } else {
+            patchJump(elseJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        beginLoop();
+        int loopStart = function.chunk.count;
+        loop.continueTarget = loopStart;
+
+        int exitJump = compileCondition(stmt.condition);
+        compile(stmt.block);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        endLoop();
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        beginScope();
+        compile(stmt.init);
+
+        beginLoop();
+        int loopStart = function.chunk.count;
+        int exitJump = compileCondition(stmt.condition);
+        compile(stmt.block);
+
+        loop.continueTarget = function.chunk.count;
+        for (int jump : loop.continueJumps) {
+            patchJump(jump);
+        }
+        if (null != stmt.increase) {
+            compile(stmt.increase);
+            emit(OpCode.POP, -1);
+        }
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        endLoop();
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        currentToken = stmt.keyword;
+        if (null == loop) { emitByte(OpCode.MISPLACED, 0, OpCode.MISPLACED_BREAK); return null; }
+
+        loop.breakJumps.add(emitJump(OpCode.JUMP, 0));
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        currentToken = stmt.keyword;
+        if (null == loop) { emitByte(OpCode.MISPLACED, 0, OpCode.MISPLACED_CONTINUE); return null; }
+
+        if   (-1 != loop.continueTarget) { emitLoop(loop.continueTarget); }
+        else                             { loop.continueJumps.add(emitJump(OpCode.JUMP, 0)); }
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        CompiledFunction enclosingFunction = function;
+        List<Local> enclosingLocals = locals;
+        int enclosingDepth = scopeDepth;
+        int enclosingStack = stackDepth;
+        Loop enclosingLoop = loop;
+        boolean enclosingInFunction = inFunction;
+
+        function = new CompiledFunction(stmt.name.lexeme(), stmt.params.size());
+        locals = new ArrayList<>();
+        scopeDepth = 1;
+        stackDepth = 0;
+        loop = null;
+        inFunction = true;
+
+        for (Token param : stmt.params) {
+            declareLocal(param);
+        }
+        for (Stmt statement : stmt.body()) {
+            compile(statement);
+        }
+        emit(OpCode.NIL, 1);
+        emit(OpCode.RETURN, -1);
+        CompiledFunction compiled = function;
+
+        function = enclosingFunction;
+        locals = enclosingLocals;
+        scopeDepth = enclosingDepth;
+        stackDepth = enclosingStack;
+        loop = enclosingLoop;
+        inFunction = enclosingInFunction;
+
+        emitConstant(compiled);
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        // raised before the value is evaluated, like the tree engine does
+        if (!inFunction) {
+            currentToken = stmt.keyword;
+            emitByte(OpCode.MISPLACED, 0, OpCode.MISPLACED_RETURN);
+            return null;
+        }
+
+        // the RETURN after a TAIL_CALL is only reached when the callee was a native function
+        if   (stmt.expr instanceof Expr.Call call) { compileCall(call, OpCode.TAIL_CALL); }
+        else                                       { compile(stmt.expr); }
+        currentToken = stmt.keyword;
+        emit(OpCode.RETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if      (null == expr.value)          { emit(OpCode.NIL, 1); }
+        else if (Boolean.TRUE == expr.value)  { emit(OpCode.TRUE, 1); }
+        else if (Boolean.FALSE == expr.value) { emit(OpCode.FALSE, 1); }
+        else                                  { emitConstant(expr.value); }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        currentToken = expr.name;
+
+        Local local = resolveLocal(expr.name);
+        if   (null != local) { emitByte(OpCode.SET_LOCAL, 0, local.slot); }
+        else                 { emit(OpCode.SET_GLOBAL, 0); }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.expr);
+        currentToken = expr.operator;
+
+        switch (expr.operator.type) {
+            case MINUS -> emit(OpCode.NEGATE, 0);
+            case BANG  -> emit(OpCode.NOT, 0);
+            default -> throw error(expr.operator, "Unknown Unary Operator");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        if (TokenType.COMMA == expr.operator.type) {
+            compile(expr.left);
+            emit(OpCode.POP, -1);
+            compile(expr.right);
+            return null;
+        }
+
+        compile(expr.left);
+        compile(expr.right);
+        currentToken = expr.operator;
+
+        switch (expr.operator.type) {
+            case PLUS          -> emit(OpCode.ADD, -1);
+            case STAR          -> emit(OpCode.MULTIPLY, -1);
+            case SLASH         -> emit(OpCode.DIVIDE, -1);
+            case MINUS         -> emit(OpCode.SUBTRACT, -1);
+            case GREATER       -> emit(OpCode.GREATER, -1);
+            case LESS          -> emit(OpCode.LESS, -1);
+            case GREATER_EQUAL -> emit(OpCode.GREATER_EQUAL, -1);
+            case LESS_EQUAL    -> emit(OpCode.LESS_EQUAL, -1);
+            case BANG_EQUAL    -> emit(OpCode.NOT_EQUAL, -1);
+            case EQUAL_EQUAL   -> emit(OpCode.EQUAL, -1);
+            default -> throw error(expr.operator, "Unknown Binary Operator");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        // all three operands are evaluated, like the tree walking interpreter does
+        compile(expr.condition);
+        emit(OpCode.TRUTHY, 0);
+        compile(expr.first);
+        compile(expr.second);
+        emit(OpCode.SELECT, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        currentToken = expr.name;
+
+        Local local = resolveLocal(expr.name);
+        if   (null != local) { emitByte(OpCode.GET_LOCAL, 1, local.slot); }
+        else                 { emit(OpCode.GET_GLOBAL, 1); }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        currentToken = expr.operator;
+        emit(OpCode.TRUTHY, 0);
+        emit(OpCode.DUP, 1);
+
+        byte jump = (TokenType.AND == expr.operator.type) ? OpCode.JUMP_IF_FALSE : OpCode.JUMP_IF_TRUE;
+        int endJump = emitJump(jump, -1);
+        emit(OpCode.POP, -1);
+        compile(expr.right);
+        currentToken = expr.operator;
+        emit(OpCode.TRUTHY, 0);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compileCall(expr, OpCode.CALL);
+        return null;
+    }
+
+    private void compileCall(Expr.Call expr, byte opcode) {
+        compile(expr.callee);
+        for (Expr arg : expr.arguments) {
+            compile(arg);
+        }
+        currentToken = expr.rightParen;
+        emitByte(opcode, -expr.arguments.size(), expr.arguments.size());
+    }
+
+    // compiles a condition followed by a jump taken when it is false, returns the jump to patch
+    private int compileCondition(Expr condition) {
+        if (condition instanceof Expr.Binary binary) {
+            byte jump = switch (binary.operator.type) {
+                case GREATER       -> OpCode.JUMP_IF_NOT_GREATER;
+                case GREATER_EQUAL -> OpCode.JUMP_IF_NOT_GREATER_EQUAL;
+                case LESS          -> OpCode.JUMP_IF_NOT_LESS;
+                case LESS_EQUAL    -> OpCode.JUMP_IF_NOT_LESS_EQUAL;
+                default            -> OpCode.JUMP_IF_FALSE;
+            };
+            if (OpCode.JUMP_IF_FALSE != jump) {
+                compile(binary.left);
+                compile(binary.right);
+                currentToken = binary.operator;
+                return emitJump(jump, -2);
+            }
+        }
+
+        compile(condition);
+        return emitJump(OpCode.JUMP_IF_FALSE, -1);
+    }
+
+    private void defineVariable(Token name) {
+        currentToken = name;
+        if (0 == scopeDepth) {
+            emit(OpCode.DEFINE_GLOBAL, -1);
+        } else {
+            emitByte(OpCode.DEFINE_LOCAL, -1, declareLocal(name).slot);
+        }
+    }
+
+    private Local declareLocal(Token name) {
+        int slot = locals.size();
+        if (slot > 255) { throw error(name, "Too many local variables in function"); }
+
+        Local local = new Local(name.lexeme(), scopeDepth, slot);
+        locals.add(local);
+        function.localCount = Math.max(function.localCount, locals.size());
+        return local;
+    }
+
+    private Local resolveLocal(Token name) {
+        for (int i = locals.size() - 1; i >= 0; --i) {
+            Local local = locals.get(i);
+            if (local.name.equals(name.lexeme())) { return local; }
+        }
+        return null;
+    }
+
+    private void beginScope() {
+        scopeDepth++;
+    }
+
+    private void endScope() {
+        scopeDepth--;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > scopeDepth) {
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    private void beginLoop() {
+        loop = new Loop(loop);
+    }
+
+    private void endLoop() {
+        for (int jump : loop.breakJumps) {
+            patchJump(jump);
+        }
+        loop = loop.enclosing;
+    }
+
+    private void emitConstant(Object value) {
+        int index = function.chunk.addConstant(value);
+        if (index <= 0xffff) {
+            emitShort(OpCode.CONSTANT, 1, index);
+        } else if (index <= 0xffffff) {
+            emitByte(OpCode.CONSTANT_LONG, 1, index >> 16);
+            function.chunk.write((byte)(index >> 8), currentToken);
+            function.chunk.write((byte)index, currentToken);
+        } else {
+            throw error(currentToken, "Too many constants in one chunk");
+        }
+    }
+
+    private void emit(byte op, int stackEffect) {
+        function.chunk.write(op, currentToken);
+        stackDepth += stackEffect;
+        function.stackSize = Math.max(function.stackSize, stackDepth);
+    }
+
+    private void emitByte(byte op, int stackEffect, int operand) {
+        emit(op, stackEffect);
+        function.chunk.write((byte)operand, currentToken);
+    }
+
+    private void emitShort(byte op, int stackEffect, int operand) {
+        emit(op, stackEffect);
+        function.chunk.write((byte)(operand >> 8), currentToken);
+        function.chunk.write((byte)operand, currentToken);
+    }
+
+    private int emitJump(byte op, int stackEffect) {
+        emitShort(op, stackEffect, 0xffff);
+        return function.chunk.count - 2;
+    }
+
+    private void patchJump(int offset) {
+        int jump = function.chunk.count - offset - 2;
+        if (jump > 0xffff) { throw error(currentToken, "Too much code to jump over"); }
+
+        function.chunk.code[offset] = (byte)(jump >> 8);
+        function.chunk.code[offset + 1] = (byte)jump;
+    }
+
+    private void emitLoop(int loopStart) {
+        int offset = function.chunk.count - loopStart + 3;
+        if (offset > 0xffff) { throw error(currentToken, "Loop body too large"); }
+        emitShort(OpCode.LOOP, 0, offset);
+    }
+
+    private CompileException error(Token token, String message) {
+        ErrorReporter.error(token, "Compiler", message);
+        return new CompileException();
+    }
+}
@@ -0,0 +1,81 @@
+package com.craftinginterpreters.lox;
+
+/*
+Folds Unary, Binary and Ternary expressions whose operands are all literals, and
+drops Grouping nodes which only matter to the parser.
+
+Folding uses the runtime's own Operators, an operation that would fail (divide by
+zero, wrong operand types) is left in place so the error still happens at runtime.
+String repetition is never folded, its result can be arbitrarily large.
+*/
+
+public class ConstantFolder extends AstRewriter {
+    private static final Object NOT_FOLDED = new Object();
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return rewrite(expr.expr);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr operand = rewrite(expr.expr);
+        if (operand instanceof Expr.Literal literal) {
+            if (TokenType.MINUS == expr.operator.type && literal.value instanceof Double d) { return new Expr.Literal(-d); }
+            if (TokenType.BANG == expr.operator.type) { return new Expr.Literal(!Operators.isTruthy(literal.value, expr.operator)); }
+        }
+
+        if   (operand == expr.expr) { return expr; }
+        else                        { return new Expr.Unary(expr.operator, operand); }
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+
+        // a literal on the left of a comma has no effect
+        if (TokenType.COMMA == expr.operator.type && left instanceof Expr.Literal) { return right; }
+
+        if (left instanceof Expr.Literal l && right instanceof Expr.Literal r) {
+            try {
+                Object value = fold(expr.operator, l.value, r.value);
+                if (NOT_FOLDED != value) { return new Expr.Literal(value); }
+            } catch (RuntimeError ignored) { }
+        }
+
+        if   (left == expr.left && right == expr.right) { return expr; }
+        else                                            { return new Expr.Binary(left, expr.operator, right); }
+    }
+
+    @Override
+    public Expr visitTernaryExpr(Expr.Ternary expr) {
+        Expr condition = rewrite(expr.condition);
+        Expr first = rewrite(expr.first);
+        Expr second = rewrite(expr.second);
+
+        // all three operands are evaluated at runtime, so only fold when none of them can do anything
+        if (condition instanceof Expr.Literal c && first instanceof Expr.Literal && second instanceof Expr.Literal) {
+            return Operators.isTruthy(c.value, c) ? first : second;
+        }
+
+        if   (condition == expr.condition && first == expr.first && second == expr.second) { return expr; }
+        else                                                                               { return new Expr.Ternary(condition, first, second); }
+    }
+
+    private static Object fold(Token operator, Object left, Object right) {
+        return switch (operator.type) {
+            case PLUS  -> Operators.flatten(Operators.plus(left, right, operator));
+            case MINUS -> Operators.number(left, operator) - Operators.number(right, operator);
+            case STAR  -> left instanceof Double ? Operators.multiply(left, right, operator) : NOT_FOLDED;
+            case SLASH -> Operators.divide(left, right, operator);
+            case GREATER       -> Operators.number(left, operator) > Operators.number(right, operator);
+            case LESS          -> Operators.number(left, operator) < Operators.number(right, operator);
+            case GREATER_EQUAL -> Operators.number(left, operator) >= Operators.number(right, operator);
+            case LESS_EQUAL    -> Operators.number(left, operator) <= Operators.number(right, operator);
+            case BANG_EQUAL    -> !Operators.isEqual(left, right);
+            case EQUAL_EQUAL   -> Operators.isEqual(left, right);
+            default -> NOT_FOLDED;
+        };
+    }
+}
@@ -0,0 +1,18 @@
+package com.craftinginterpreters.lox;
+
+// Replaces an if whose condition is a literal by the branch that always runs, best run after ConstantFolder
+public class DeadBranchEliminator extends AstRewriter {
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = rewrite(stmt.condition);
+        if (condition instanceof Expr.Literal literal) {
+            if   (Operators.isTruthy(literal.value, literal)) { return rewrite(stmt.ifBlock); }
+            else                                              { return rewrite(stmt.elseBlock); }
+        }
+
+        Stmt ifBlock = rewrite(stmt.ifBlock);
+        Stmt elseBlock = rewrite(stmt.elseBlock);
+        if   (condition == stmt.condition && ifBlock == stmt.ifBlock && elseBlock == stmt.elseBlock) { return stmt; }
+        else                                                                                          { return new Stmt.If(condition, ifBlock, elseBlock); }
+    }
+}
@@ -0,0 +1,8 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// An execution engine for resolved statements, keeps its globals between calls (for the prompt)
+public interface Engine {
+    void interpret(List<Stmt> statements);
+}
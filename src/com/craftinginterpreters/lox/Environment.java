@@ -1,44 +1,64 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class Environment {
+    // marks a slot whose value is the unboxed double in numbers
+    private static final Object NUMBER = new Object();
+
     private final Environment parent;
-    private final Map<String, Object> values = new HashMap<>();
-
-    Environment() { this.parent = null; }
-    Environment(Environment parent) { this.parent = parent; }
-
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        } else if (null != parent) {
-            return parent.get(name);
-        } else {
-            throw error(name, "Undefined variable: " + name.lexeme);
-        }
+    private final Object[] slots;
+    private double[] numbers = null; // allocated by the first unboxed store
+
+    Environment(Environment parent, int size) {
+        this.parent = parent;
+        this.slots = new Object[size];
     }
 
-    void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-        } else if (null != parent) {
-            parent.assign(name, value);
-        } else {
-            throw error(name, "Undefined variable: " + name.lexeme);
-        }
+    Object get(int slot) {
+        Object value = slots[slot];
+        if (NUMBER != value) { return value; }
+
+        // once boxed keep the box, so generic readers of the slot box it only once
+        Double boxed = numbers[slot];
+        slots[slot] = boxed;
+        return boxed;
     }
 
-    void define(Token name, Object value) {
-        if (!values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-        } else {
-            throw error(name, "Variable already defined: " + name.lexeme);
-        }
+    void assign(int slot, Object value) {
+        slots[slot] = value;
+    }
+
+    Object getAt(int depth, int slot) {
+        return ancestor(depth).get(slot);
+    }
+
+    void assignAt(int depth, int slot, Object value) {
+        ancestor(depth).slots[slot] = value;
+    }
+
+    void define(int slot, Object value) {
+        slots[slot] = value;
+    }
+
+    boolean isNumber(int slot) {
+        return NUMBER == slots[slot];
     }
 
-    private RuntimeError error(Token token, String message) {
-        return new RuntimeError(token, "Environment", message);
+    // only valid when isNumber(slot)
+    double number(int slot) {
+        return numbers[slot];
+    }
+
+    void assignNumber(int slot, double value) {
+        if (null == numbers) { numbers = new double[slots.length]; }
+        numbers[slot] = value;
+        slots[slot] = NUMBER;
+    }
+
+    Environment ancestor(int depth) {
+        Environment environment = this;
+        for (int i = 0; i < depth; ++i) {
+            environment = environment.parent;
+        }
+        return environment;
     }
 }
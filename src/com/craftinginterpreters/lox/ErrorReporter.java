@@ -1,37 +1,70 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
 import java.util.ArrayDeque;
 
+// errors go to the Errors bound to the current thread, those of the command line when it has none
 public class ErrorReporter {
-    private static final Queue<String> errorQueue = new ArrayDeque<>();
-    private static String runtimeErrorMessage;
+    // compile errors in the order they were found and the runtime error of one script
+    static class Errors {
+        private final Queue<String> errorQueue = new ArrayDeque<>();
+        private String runtimeErrorMessage;
+
+        // the runtime error first, like report() prints them
+        List<String> messages() {
+            List<String> messages = new ArrayList<>();
+            if (null != runtimeErrorMessage) { messages.add(runtimeErrorMessage); }
+            messages.addAll(errorQueue);
+            return messages;
+        }
+    }
+
+    private static final Errors shared = new Errors();
+    private static final ThreadLocal<Errors> bound = new ThreadLocal<>();
 
     public static void reset() {
-        errorQueue.clear();
-        runtimeErrorMessage = null;
+        Errors errors = errors();
+        errors.errorQueue.clear();
+        errors.runtimeErrorMessage = null;
     }
 
     public static boolean hadError() {
-        return !errorQueue.isEmpty();
+        return !errors().errorQueue.isEmpty();
     }
 
     public static boolean hadRuntimeError() {
-        return runtimeErrorMessage != null;
+        return errors().runtimeErrorMessage != null;
     }
 
     public static void report() {
-        if (hadRuntimeError()) {
-            System.out.println(runtimeErrorMessage);
-        }
-        while (hadError()) {
-            System.out.println(errorQueue.remove());
+        for (String message : errors().messages()) {
+            Output.println(message);
         }
         reset();
     }
 
+    // the errors of this thread go to errors until restore(), returns the Errors bound before, for restore()
+    static Errors bind(Errors errors) {
+        Errors previous = bound.get();
+        bound.set(errors);
+        return previous;
+    }
+
+    static void restore(Errors previous) {
+        if   (null == previous) { bound.remove(); }
+        else                    { bound.set(previous); }
+    }
+
+    private static Errors errors() {
+        Errors errors = bound.get();
+        return null == errors ? shared : errors;
+    }
+
     public static void printPrompt() {
         report();
+        Output.flush();
         System.out.print("> ");
     }
 
@@ -41,15 +74,15 @@ public class ErrorReporter {
 
     public static void error(Token token, String actor, String message) {
         queue(token.line, token.column, actor,
-                (token.type == TokenType.EOF) ? "at the end" : "'" + token.lexeme + "'", message);
+                (token.type == TokenType.EOF) ? "at the end" : "'" + token.lexeme() + "'", message);
     }
 
     public static void error(RuntimeError error) {
-        runtimeErrorMessage = String.format("[%s:%s] [%s]: %s",
+        errors().runtimeErrorMessage = String.format("[%s:%s] [%s]: %s",
                 error.token.line, error.token.column, error.actor, error.getMessage());
     }
 
     private static void queue(int line, int column, String actor, String where, String message) {
-        errorQueue.add(String.format("[%s:%s] [%s] %s: %s", line, column, actor, where, message));
+        errors().errorQueue.add(String.format("[%s:%s] [%s] %s: %s", line, column, actor, where, message));
     }
 }
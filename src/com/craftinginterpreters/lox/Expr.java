@@ -18,6 +18,26 @@ public abstract class Expr {
 
     abstract <R> R accept(Visitor<R> visitor);
 
+    // the token evaluating expr ends at, where every engine reports a value of it that has no truthiness, null for none
+    static Token lastToken(Expr expr) {
+        if      (expr instanceof Variable variable) { return variable.name; }
+        else if (expr instanceof Assign assign)     { return assign.name; }
+        else if (expr instanceof Unary unary)       { return unary.operator; }
+        else if (expr instanceof Binary binary)     { return binary.operator; }
+        else if (expr instanceof Logical logical)   { return logical.operator; }
+        else if (expr instanceof Call call)         { return call.rightParen; }
+        else if (expr instanceof Grouping grouping) { return lastToken(grouping.expr); }
+        else if (expr instanceof Ternary ternary) {
+            Token token = lastToken(ternary.second);
+            if (null == token) { token = lastToken(ternary.first); }
+            return null == token ? lastToken(ternary.condition) : token;
+        }
+        else                                        { return null; }
+    }
+
+    // filled by StackInterpreter the first time it evaluates the node, 0 unknown, 1 direct, 2 not
+    byte direct = 0;
+
     public static class Literal extends Expr {
         final Object value;
 
@@ -34,6 +54,9 @@ public abstract class Expr {
     public static class Assign extends Expr {
         final Token name;
         final Expr value;
+        // filled by Resolver, depth -1 means global
+        int depth = -1;
+        int slot = -1;
 
         Assign(Token name, Expr value) {
             this.name = name;
@@ -49,6 +72,7 @@ public abstract class Expr {
     public static class Unary extends Expr {
         final Token operator;
         final Expr expr;
+        byte feedback = TypeFeedback.UNINITIALIZED; // filled by Interpreter
 
         Unary(Token operator, Expr expr) {
             this.operator = operator;
@@ -65,6 +89,7 @@ public abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        byte feedback = TypeFeedback.UNINITIALIZED; // filled by Interpreter
 
         Binary(Expr left, Token operator, Expr right) {
             this.left = left;
@@ -110,6 +135,9 @@ public abstract class Expr {
 
     public static class Variable extends Expr {
         final Token name;
+        // filled by Resolver, depth -1 means global
+        int depth = -1;
+        int slot = -1;
 
         Variable(Token name) {
             this.name = name;
@@ -125,6 +153,7 @@ public abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        byte feedback = TypeFeedback.UNINITIALIZED; // filled by Interpreter
 
         Logical(Expr left, Token operator, Expr right) {
             this.left = left;
@@ -142,6 +171,7 @@ public abstract class Expr {
         final Expr callee;
         final Token rightParen; // for error reporting
         final List<Expr> arguments;
+        Inliner.Inlined inlined = null; // filled by Interpreter
 
         Call(Expr callee, Token rightParen, List<Expr> arguments) {
             this.callee = callee;
@@ -0,0 +1,371 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Resolved statements as parallel arrays instead of one object per node and Token.
+
+Node n is kinds[n] with up to three operands a[n], b[n], c[n] and the line and
+column of its token. Operands are child nodes, -1 for a missing one, or what
+the kind below says. A list of nodes is an offset into lists, which holds the
+count and then the nodes. Literal values and names are indexes into constants,
+each distinct value is stored once. Groupings are left out, they are their
+expression.
+
+    kind        a               b                   c
+    LITERAL     constant
+    VARIABLE                    depth, -1 global    slot, name of a global
+    ASSIGN      value           depth, -1 global    slot, name of a global
+    UNARY       operand                             operator TokenType.ordinal()
+    BINARY      left            right               operator TokenType.ordinal()
+    LOGICAL     left            right               operator TokenType.ordinal()
+    TERNARY     condition       first               second
+    CALL        callee          argument list
+    EXPRESSION  expression
+    PRINT       expression
+    VAR         initializer     -1 global           slot, name of a global
+    BLOCK       statement list                      frame size
+    IF          condition       then                else
+    WHILE       condition       body
+    FOR         initializer     FOR_LOOP            frame size
+    FOR_LOOP    condition       increase            body
+    BREAK, CONTINUE
+    FUNCTION    function        -1 global           slot, name of a global
+    RETURN      value           1 in a function
+
+A function is an index into the function arrays: name constant, arity, frame
+size and body list. A body that was not parsed yet is kept as its declaration
+and only flattened the first time body() is asked for it.
+
+One FlatAst grows with every add(), so the code of earlier prompt lines stays
+valid. The arrays are trimmed to their size after each add().
+*/
+
+public class FlatAst {
+    // node kinds
+    static final byte LITERAL = 1, VARIABLE = 2, ASSIGN = 3, UNARY = 4, BINARY = 5, LOGICAL = 6, TERNARY = 7, CALL = 8;
+    static final byte EXPRESSION = 20, PRINT = 21, VAR = 22, BLOCK = 23, IF = 24, WHILE = 25, FOR = 26,
+                      FOR_LOOP = 27, BREAK = 28, CONTINUE = 29, FUNCTION = 30, RETURN = 31;
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    byte[] kinds = new byte[0];
+    int[] a = new int[0];
+    int[] b = new int[0];
+    int[] c = new int[0];
+    int[] lines = new int[0];
+    int[] columns = new int[0];
+    private int size = 0;
+
+    int[] lists = new int[0];
+    private int listsSize = 0;
+
+    Object[] constants = new Object[0];
+    private int constantCount = 0;
+    private Map<Object, Integer> constantIndex = null; // only while adding
+
+    int[] functionNames = new int[0];
+    int[] functionArities = new int[0];
+    private int[] functionFrameSizes = new int[0];
+    private int[] functionBodies = new int[0];
+    private Stmt.Function[] unparsed = new Stmt.Function[0];
+    private int functionCount = 0;
+
+    // flattens statements, returns their list
+    int add(List<Stmt> statements) {
+        constantIndex = new HashMap<>();
+        for (int i = 0; i < constantCount; ++i) {
+            constantIndex.put(constants[i], i);
+        }
+        try {
+            return new Flattener().stmts(statements);
+        } finally {
+            constantIndex = null;
+            trim();
+        }
+    }
+
+    // list of the statements of a function body
+    int body(int function) {
+        if (null != unparsed[function]) {
+            Stmt.Function declaration = unparsed[function];
+            List<Stmt> body = declaration.body();
+            functionFrameSizes[function] = declaration.frameSize();
+            int list = add(body);
+            functionBodies[function] = list;
+            unparsed[function] = null;
+        }
+        return functionBodies[function];
+    }
+
+    int frameSize(int function) {
+        body(function);
+        return functionFrameSizes[function];
+    }
+
+    // the token of node for errors, null for -1
+    Token token(int node) {
+        if (-1 == node) { return null; }
+
+        return switch (kinds[node]) {
+            case UNARY, BINARY, LOGICAL -> new Token(TYPES[c[node]], "", null, lines[node], columns[node]);
+            case VARIABLE, ASSIGN, VAR, FUNCTION -> {
+                String name = -1 == b[node] ? name(node) : "";
+                yield new Token(TokenType.IDENTIFIER, name, null, lines[node], columns[node]);
+            }
+            default -> new Token(TokenType.IDENTIFIER, "", null, lines[node], columns[node]);
+        };
+    }
+
+    // the node whose token evaluating node ends at, like Expr.lastToken(), -1 for none
+    int lastTokenNode(int node) {
+        if (-1 == node) { return -1; }
+
+        return switch (kinds[node]) {
+            case VARIABLE, ASSIGN, UNARY, BINARY, LOGICAL, CALL -> node;
+            case TERNARY -> {
+                int last = lastTokenNode(c[node]);
+                if (-1 == last) { last = lastTokenNode(b[node]); }
+                yield -1 == last ? lastTokenNode(a[node]) : last;
+            }
+            default -> -1;
+        };
+    }
+
+    // name of a global
+    String name(int node) {
+        return (String)constants[c[node]];
+    }
+
+    private int node(byte kind, int a, int b, int c, Token token) {
+        if (size == kinds.length) {
+            int capacity = Math.max(256, 2 * size);
+            kinds = Arrays.copyOf(kinds, capacity);
+            this.a = Arrays.copyOf(this.a, capacity);
+            this.b = Arrays.copyOf(this.b, capacity);
+            this.c = Arrays.copyOf(this.c, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            columns = Arrays.copyOf(columns, capacity);
+        }
+        kinds[size] = kind;
+        this.a[size] = a;
+        this.b[size] = b;
+        this.c[size] = c;
+        if (null != token) {
+            lines[size] = token.line;
+            columns[size] = token.column;
+        }
+        return size++;
+    }
+
+    private int list(int[] nodes, int count) {
+        if (listsSize + count + 1 > lists.length) { lists = Arrays.copyOf(lists, Math.max(256, 2 * (listsSize + count + 1))); }
+        int list = listsSize;
+        lists[listsSize++] = count;
+        System.arraycopy(nodes, 0, lists, listsSize, count);
+        listsSize += count;
+        return list;
+    }
+
+    private int constant(Object value) {
+        Integer index = constantIndex.get(value);
+        if (null != index) { return index; }
+
+        if (constantCount == constants.length) { constants = Arrays.copyOf(constants, Math.max(16, 2 * constantCount)); }
+        constants[constantCount] = value;
+        constantIndex.put(value, constantCount);
+        return constantCount++;
+    }
+
+    private int function(Stmt.Function function) {
+        if (functionCount == functionNames.length) {
+            int capacity = Math.max(16, 2 * functionCount);
+            functionNames = Arrays.copyOf(functionNames, capacity);
+            functionArities = Arrays.copyOf(functionArities, capacity);
+            functionFrameSizes = Arrays.copyOf(functionFrameSizes, capacity);
+            functionBodies = Arrays.copyOf(functionBodies, capacity);
+            unparsed = Arrays.copyOf(unparsed, capacity);
+        }
+        int index = functionCount++;
+        functionNames[index] = constant(function.name.lexeme());
+        functionArities[index] = function.params.size();
+        unparsed[index] = function;
+        return index;
+    }
+
+    private void trim() {
+        kinds = Arrays.copyOf(kinds, size);
+        a = Arrays.copyOf(a, size);
+        b = Arrays.copyOf(b, size);
+        c = Arrays.copyOf(c, size);
+        lines = Arrays.copyOf(lines, size);
+        columns = Arrays.copyOf(columns, size);
+        lists = Arrays.copyOf(lists, listsSize);
+        constants = Arrays.copyOf(constants, constantCount);
+        functionNames = Arrays.copyOf(functionNames, functionCount);
+        functionArities = Arrays.copyOf(functionArities, functionCount);
+        functionFrameSizes = Arrays.copyOf(functionFrameSizes, functionCount);
+        functionBodies = Arrays.copyOf(functionBodies, functionCount);
+        unparsed = Arrays.copyOf(unparsed, functionCount);
+    }
+
+    private class Flattener implements Expr.Visitor<Integer>,
+                                       Stmt.Visitor<Integer> {
+        int stmts(List<Stmt> stmts) {
+            int[] nodes = new int[stmts.size()];
+            for (int i = 0; i < nodes.length; ++i) {
+                nodes[i] = stmt(stmts.get(i));
+            }
+            return list(nodes, nodes.length);
+        }
+
+        private int stmt(Stmt stmt) {
+            if   (null == stmt) { return -1; }
+            else                { return stmt.accept(this); }
+        }
+
+        private int expr(Expr expr) {
+            if   (null == expr) { return -1; }
+            else                { return expr.accept(this); }
+        }
+
+        // slot of a local, name of a global
+        private int slot(int depth, int slot, Token name) {
+            if   (-1 == depth) { return constant(name.lexeme()); }
+            else               { return slot; }
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            return node(LITERAL, constant(expr.value), 0, 0, null);
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            int value = expr(expr.value);
+            return node(ASSIGN, value, expr.depth, slot(expr.depth, expr.slot, expr.name), expr.name);
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            int operand = expr(expr.expr);
+            return node(UNARY, operand, 0, expr.operator.type.ordinal(), expr.operator);
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            int left = expr(expr.left);
+            int right = expr(expr.right);
+            return node(BINARY, left, right, expr.operator.type.ordinal(), expr.operator);
+        }
+
+        @Override
+        public Integer visitTernaryExpr(Expr.Ternary expr) {
+            int condition = expr(expr.condition);
+            int first = expr(expr.first);
+            return node(TERNARY, condition, first, expr(expr.second), null);
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            return expr(expr.expr);
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            return node(VARIABLE, 0, expr.depth, slot(expr.depth, expr.slot, expr.name), expr.name);
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            int left = expr(expr.left);
+            int right = expr(expr.right);
+            return node(LOGICAL, left, right, expr.operator.type.ordinal(), expr.operator);
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            int callee = expr(expr.callee);
+            int[] arguments = new int[expr.arguments.size()];
+            for (int i = 0; i < arguments.length; ++i) {
+                arguments[i] = expr(expr.arguments.get(i));
+            }
+            return node(CALL, callee, list(arguments, arguments.length), 0, expr.rightParen);
+        }
+
+        @Override
+        public Integer visitExprStmt(Stmt.Expression stmt) {
+            return node(EXPRESSION, expr(stmt.expr), 0, 0, null);
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt) {
+            return node(PRINT, expr(stmt.expr), 0, 0, null);
+        }
+
+        @Override
+        public Integer visitVariableStmt(Stmt.Variable stmt) {
+            int initializer = expr(stmt.initializer);
+            int global = -1 == stmt.slot ? -1 : 0;
+            return node(VAR, initializer, global, slot(global, stmt.slot, stmt.name), stmt.name);
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt) {
+            return node(BLOCK, stmts(stmt.stmts), 0, stmt.frameSize, null);
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt) {
+            int condition = expr(stmt.condition);
+            int ifBlock = stmt(stmt.ifBlock);
+            return node(IF, condition, ifBlock, stmt(stmt.elseBlock), null);
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt) {
+            int condition = expr(stmt.condition);
+            return node(WHILE, condition, stmt(stmt.block), 0, null);
+        }
+
+        @Override
+        public Integer visitForStmt(Stmt.For stmt) {
+            int init = stmt(stmt.init);
+            int condition = expr(stmt.condition);
+            int increase = expr(stmt.increase);
+            int loop = node(FOR_LOOP, condition, increase, stmt(stmt.block), null);
+            return node(FOR, init, loop, stmt.frameSize, null);
+        }
+
+        @Override
+        public Integer visitBreakStmt(Stmt.Break stmt) {
+            return node(BREAK, 0, 0, 0, stmt.keyword);
+        }
+
+        @Override
+        public Integer visitContinueStmt(Stmt.Continue stmt) {
+            return node(CONTINUE, 0, 0, 0, stmt.keyword);
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt) {
+            int function = function(stmt);
+            if (stmt.isParsed()) {
+                int body = stmts(stmt.body()); // may grow the arrays
+                functionFrameSizes[function] = stmt.frameSize();
+                functionBodies[function] = body;
+                unparsed[function] = null;
+            }
+            int global = -1 == stmt.slot ? -1 : 0;
+            return node(FUNCTION, function, global, slot(global, stmt.slot, stmt.name), stmt.name);
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt) {
+            return node(RETURN, expr(stmt.expr), stmt.inFunction ? 1 : 0, 0, stmt.keyword);
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.craftinginterpreters.lox.FlatAst.*;
+
+/*
+Tree walking engine over a FlatAst, the statements are flattened once and then
+only the arrays are walked. A FlatAst without unparsed function bodies is never
+written to while it runs, so engines on other threads may run the same one, see
+LoxEngine. Functions keep the FlatAst they are from.
+
+Results and errors are the same as Interpreter's generic paths. Errors are
+reported at the node whose token the Interpreter would use, a Token is only
+made for the error. A call in return position is bound for the caller to run,
+like the tail calls of the other engines.
+*/
+
+public class FlatInterpreter implements Engine {
+    // how a statement ended, NORMAL falls through to the next one
+    private static final int NORMAL = 0, BREAKING = 1, CONTINUING = 2, RETURNING = 3, TAIL_CALLING = 4;
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    // function index of ast, the engine is needed when it is called as a LoxCallable
+    static class FlatFunction implements LoxCallable {
+        final FlatInterpreter engine;
+        final FlatAst ast;
+        final int index;
+
+        FlatFunction(FlatInterpreter engine, FlatAst ast, int index) {
+            this.engine = engine;
+            this.ast = ast;
+            this.index = index;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> args) {
+            Environment frame = new Environment(null, ast.frameSize(index));
+            for (int i = 0; i < args.size(); ++i) {
+                frame.define(i, args.get(i));
+            }
+            return engine.run(this, frame);
+        }
+
+        @Override
+        public int arity() {
+            return ast.functionArities[index];
+        }
+
+        @Override
+        public String toString() {
+            return "<fn>$" + ast.constants[ast.functionNames[index]];
+        }
+    }
+
+    final Globals globals = new Globals();
+    private final FlatAst prompt = new FlatAst(); // what interpret() is given
+    private FlatAst ast = prompt; // of the code being run
+    private Environment environment = null;
+    // errors of values are reported at the token of this node, -1 for none
+    private FlatAst throwAst = null;
+    private int throwNode = -1;
+    // what the last completion carries
+    private Object returnValue;
+    private FlatFunction tailFunction;
+    private Environment tailFrame;
+    private int completionNode; // the last break or continue
+
+    FlatInterpreter() {
+        globals.defineNatives();
+    }
+
+    @Override
+    public void interpret(List<Stmt> statements) {
+        try {
+            run(prompt, prompt.add(statements));
+        } catch (RuntimeError error) {
+            ErrorReporter.error(error);
+        }
+    }
+
+    // runs the statements list of code as top level code, which may be shared with other engines
+    void run(FlatAst code, int statements) {
+        try {
+            ast = code;
+            int completion = executeList(statements);
+            if (NORMAL != completion) { throw noLoop(completion); }
+        } finally {
+            ast = prompt;
+            environment = null;
+        }
+    }
+
+    // only a break or continue outside of any loop gets here, return is checked when it runs
+    private RuntimeError noLoop(int completion) {
+        if   (BREAKING == completion) { return Operators.error(ast.token(completionNode), "No loop to catch break statement"); }
+        else                       { return Operators.error(ast.token(completionNode), "No loop to catch continue statement"); }
+    }
+
+    private int executeList(int list) {
+        int[] lists = ast.lists;
+        int count = lists[list];
+        for (int i = 1; i <= count; ++i) {
+            int completion = execute(lists[list + i]);
+            if (NORMAL != completion) { return completion; }
+        }
+        return NORMAL;
+    }
+
+    private int execute(int node) {
+        if (-1 == node) { return NORMAL; }
+
+        FlatAst ast = this.ast;
+        int a = ast.a[node];
+        int b = ast.b[node];
+        int c = ast.c[node];
+        switch (ast.kinds[node]) {
+            case EXPRESSION -> evaluate(a);
+            case PRINT -> Output.print(evaluate(a));
+            case VAR -> {
+                Object value = evaluate(a);
+                if   (-1 == b) { globals.define(ast.token(node), value); }
+                else           { environment.define(c, value); }
+            }
+            case BLOCK -> {
+                if (0 == c) { return executeList(a); }
+
+                Environment previous = environment;
+                environment = new Environment(previous, c);
+                try {
+                    return executeList(a);
+                } finally {
+                    environment = previous;
+                }
+            }
+            case IF -> {
+                if   (isTruthy(evaluate(a), a)) { return execute(b); }
+                else                            { return execute(c); }
+            }
+            case WHILE -> {
+                while (isTruthy(evaluate(a), a)) {
+                    int completion = execute(b);
+                    if (BREAKING == completion) { break; }
+                    if (NORMAL != completion && CONTINUING != completion) { return completion; }
+                }
+            }
+            case FOR -> {
+                Environment previous = environment;
+                try {
+                    if (0 != c) { environment = new Environment(previous, c); }
+                    execute(a);
+                    int condition = ast.a[b];
+                    int increase = ast.b[b];
+                    int body = ast.c[b];
+                    while (isTruthy(evaluate(condition), condition)) {
+                        int completion = execute(body);
+                        if (BREAKING == completion) { break; }
+                        if (NORMAL != completion && CONTINUING != completion) { return completion; }
+                        evaluate(increase);
+                    }
+                } finally {
+                    environment = previous;
+                }
+            }
+            case BREAK -> {
+                completionNode = node;
+                return BREAKING;
+            }
+            case CONTINUE -> {
+                completionNode = node;
+                return CONTINUING;
+            }
+            case FUNCTION -> {
+                FlatFunction function = new FlatFunction(this, ast, a);
+                if   (-1 == b) { globals.define(ast.token(node), function); }
+                else           { environment.define(c, function); }
+            }
+            case RETURN -> {
+                if (0 == b) { throw Operators.error(ast.token(node), "Cannot return from top level code"); }
+                if (-1 != a && CALL == ast.kinds[a]) { return tailCall(a); }
+
+                returnValue = evaluate(a);
+                return RETURNING;
+            }
+            default -> throw new IllegalStateException("Not a statement: " + ast.kinds[node]);
+        }
+        return NORMAL;
+    }
+
+    private Object evaluate(int node) {
+        if (-1 == node) { return null; }
+
+        FlatAst ast = this.ast;
+        int a = ast.a[node];
+        int b = ast.b[node];
+        int c = ast.c[node];
+        switch (ast.kinds[node]) {
+            case LITERAL -> { return ast.constants[a]; }
+            case VARIABLE -> {
+                if (-1 != b) { return environment.getAt(b, c); }
+
+                Globals.Cell cell = globals.cell(ast.name(node)); // never kept, see Globals.reset()
+                if   (null != cell) { return cell.value; }
+                else                { return globals.get(ast.token(node)); }
+            }
+            case ASSIGN -> {
+                Object value = evaluate(a);
+                if (-1 != b) {
+                    environment.assignAt(b, c, value);
+                    return value;
+                }
+
+                Globals.Cell cell = globals.cell(ast.name(node));
+                if   (null != cell) { cell.value = value; }
+                else                { globals.assign(ast.token(node), value); }
+                return value;
+            }
+            case UNARY -> {
+                Object right = evaluate(a);
+                throwAst = ast;
+                throwNode = node;
+                if (TokenType.MINUS.ordinal() == c) {
+                    if   (right instanceof Double d) { return -d; }
+                    else                             { return -Operators.number(right, ast.token(node)); }
+                }
+                if (TokenType.BANG.ordinal() == c) { return !isTruthy(right, node); }
+                throw Operators.error(ast.token(node), "Unknown Unary Operator");
+            }
+            case BINARY -> {
+                Object left = evaluate(a);
+                Object right = evaluate(b);
+                throwAst = ast;
+                throwNode = node;
+                if   (left instanceof Double l && right instanceof Double r) { return numbers(node, TYPES[c], l, r); }
+                else                                                         { return binary(node, left, right); }
+            }
+            case LOGICAL -> {
+                boolean left = isTruthy(evaluate(a), node);
+                if   ((TokenType.AND.ordinal() == c) == left) { return isTruthy(evaluate(b), node); }
+                else                                          { return left; }
+            }
+            case TERNARY -> {
+                boolean condition = isTruthy(evaluate(a), a);
+                Object first = evaluate(b);
+                Object second = evaluate(c);
+                throwAst = null;
+                throwNode = -1;
+                return condition ? first : second;
+            }
+            case CALL -> { return call(node); }
+            default -> throw new IllegalStateException("Not an expression: " + ast.kinds[node]);
+        }
+    }
+
+    // both operands are numbers, only an error makes a Token
+    private Object numbers(int node, TokenType type, Double left, Double right) {
+        return switch (type) {
+            case PLUS  -> left + right;
+            case MINUS -> left - right;
+            case STAR  -> left * right;
+            case SLASH -> {
+                if (right == 0) { throw Operators.error(ast.token(node), "Cannot divide by zero"); }
+                yield left / right;
+            }
+            case GREATER       -> left > right;
+            case LESS          -> left < right;
+            case GREATER_EQUAL -> left >= right;
+            case LESS_EQUAL    -> left <= right;
+            case BANG_EQUAL    -> !left.equals(right);
+            case EQUAL_EQUAL   -> left.equals(right);
+            default -> binary(node, left, right);
+        };
+    }
+
+    // Operators only use the token for errors, so it is only made for the error
+    private Object binary(int node, Object left, Object right) {
+        try {
+            return binary(TYPES[ast.c[node]], left, right);
+        } catch (RuntimeError error) {
+            if (null != error.token) { throw error; }
+            throw new RuntimeError(ast.token(node), error.actor, error.getMessage());
+        }
+    }
+
+    // errors have no token yet
+    private static Object binary(TokenType type, Object left, Object right) {
+        return switch (type) {
+            case PLUS  -> Operators.plus(left, right, null);
+            case STAR  -> Operators.multiply(left, right, null);
+            case SLASH -> Operators.divide(left, right, null);
+            case MINUS -> Operators.number(left, null) - Operators.number(right, null);
+            case COMMA -> right;
+            case GREATER       -> Operators.number(left, null) > Operators.number(right, null);
+            case LESS          -> Operators.number(left, null) < Operators.number(right, null);
+            case GREATER_EQUAL -> Operators.number(left, null) >= Operators.number(right, null);
+            case LESS_EQUAL    -> Operators.number(left, null) <= Operators.number(right, null);
+            case BANG_EQUAL    -> !Operators.isEqual(left, right);
+            case EQUAL_EQUAL   -> Operators.isEqual(left, right);
+            default -> throw Operators.error(null, "Unknown Binary Operator");
+        };
+    }
+
+    // a value without truthiness is reported at the last token of node
+    private boolean isTruthy(Object value, int node) {
+        if      (value instanceof Boolean b) { return b; }
+        else if (null == value)              { return false; }
+        else if (value instanceof Double d)  { return d != 0.0; }
+        else if (value instanceof String s)  { return !s.isEmpty(); }
+        else                                 { return Operators.isTruthy(value, ast.token(ast.lastTokenNode(node))); }
+    }
+
+    private static Token token(FlatAst ast, int node) {
+        return null == ast ? null : ast.token(node);
+    }
+
+    private Object call(int node) {
+        Object callee = evaluate(ast.a[node]);
+        throwAst = ast;
+        throwNode = node;
+
+        int arguments = ast.b[node];
+        if (callee instanceof FlatFunction function && ast.lists[arguments] == function.arity()) {
+            return run(function, bind(function, arguments));
+        }
+        return genericCall(callee, arguments);
+    }
+
+    private Object genericCall(Object callee, int arguments) {
+        int arity = ast.lists[arguments];
+        List<Object> args = new ArrayList<>(arity);
+        for (int i = 1; i <= arity; ++i) {
+            args.add(evaluate(ast.lists[arguments + i]));
+        }
+
+        if (!(callee instanceof LoxCallable function)) { throw Operators.error(token(throwAst, throwNode), "Can only call on functions and classes"); }
+        if (arity != function.arity()) {
+            throw Operators.error(token(throwAst, throwNode), String.format("Expect %d but get %d arguments", function.arity(), arity));
+        }
+        return function.call(null, args);
+    }
+
+    // a call in return position, a function of this engine is bound for the caller to run
+    private int tailCall(int node) {
+        Object callee = evaluate(ast.a[node]);
+        throwAst = ast;
+        throwNode = node;
+
+        int arguments = ast.b[node];
+        if (callee instanceof FlatFunction function && ast.lists[arguments] == function.arity()) {
+            tailFrame = bind(function, arguments);
+            tailFunction = function;
+            return TAIL_CALLING;
+        }
+        returnValue = genericCall(callee, arguments);
+        return RETURNING;
+    }
+
+    private Environment bind(FlatFunction function, int arguments) {
+        Environment frame = new Environment(null, function.ast.frameSize(function.index));
+        int arity = ast.lists[arguments];
+        for (int i = 0; i < arity; ++i) {
+            frame.define(i, evaluate(ast.lists[arguments + 1 + i]));
+        }
+        return frame;
+    }
+
+    // runs function on a frame holding its arguments, and then every function it tail calls
+    private Object run(FlatFunction function, Environment frame) {
+        for (;;) {
+            FlatAst previousAst = ast;
+            Environment previous = environment;
+            int completion;
+            try {
+                ast = function.ast;
+                environment = frame;
+                completion = executeList(ast.body(function.index));
+                if (BREAKING == completion || CONTINUING == completion) { throw noLoop(completion); }
+            } finally {
+                ast = previousAst;
+                environment = previous;
+            }
+
+            if (RETURNING == completion) {
+                Object value = returnValue;
+                returnValue = null;
+                return value;
+            }
+            if (NORMAL == completion) { return null; }
+
+            function = tailFunction;
+            frame = tailFrame;
+        }
+    }
+}
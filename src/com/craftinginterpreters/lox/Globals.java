@@ -0,0 +1,101 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Global variables by name, one Cell per defined name.
+
+Only reset() removes cells. Engines that keep cells, the Interpreter for inlined
+callees and Jit guards and the ClosureCompiler for its global reads, never have
+their globals reset. reset() is only used by LoxEngine on a FlatInterpreter,
+which looks its cells up again on every access, so no cell from an earlier run
+is ever read or written after it.
+*/
+
+public class Globals {
+    // compiled code can hold on to it and check its value directly, see reset()
+    static class Cell {
+        Object value;
+
+        Cell(Object value) {
+            this.value = value;
+        }
+    }
+
+    private final Map<String, Cell> values = new HashMap<>();
+
+    Object get(Token name) {
+        Cell cell = values.get(name.lexeme());
+        if (null != cell) {
+            return cell.value;
+        } else {
+            throw error(name, "Undefined variable: " + name.lexeme());
+        }
+    }
+
+    void assign(Token name, Object value) {
+        Cell cell = values.get(name.lexeme());
+        if (null != cell) {
+            cell.value = value;
+        } else {
+            throw error(name, "Undefined variable: " + name.lexeme());
+        }
+    }
+
+    void define(Token name, Object value) {
+        if (!values.containsKey(name.lexeme())) {
+            values.put(name.lexeme(), new Cell(value));
+        } else {
+            throw error(name, "Variable already defined: " + name.lexeme());
+        }
+    }
+
+    // defines name or replaces its value, for values given from outside of a script
+    void set(String name, Object value) {
+        Cell cell = values.get(name);
+        if   (null != cell) { cell.value = value; }
+        else                { values.put(name, new Cell(value)); }
+    }
+
+    // back to only the natives, only for globals nothing keeps cells of
+    void reset() {
+        values.clear();
+        defineNatives();
+    }
+
+    Cell cell(String name) {
+        return values.get(name);
+    }
+
+    // the cell stays the one of name until reset()
+    Cell cell(Token name) {
+        Cell cell = values.get(name.lexeme());
+        if (null != cell) {
+            return cell;
+        } else {
+            throw error(name, "Undefined variable: " + name.lexeme());
+        }
+    }
+
+    void defineNatives() {
+        String name = "clock";
+        define(new Token(TokenType.IDENTIFIER, name, null, -1, -1), new LoxCallable() {
+            @Override
+            public Object call(Interpreter interpreter, List<Object> args) {
+                return (double)System.currentTimeMillis() / 1000.0;
+            }
+
+            @Override
+            public int arity() { return 0; }
+
+            @Override
+            public String toString() { return "<native function>$" + name; }
+        });
+    }
+
+    private RuntimeError error(Token token, String message) {
+        return new RuntimeError(token, "Environment", message);
+    }
+}
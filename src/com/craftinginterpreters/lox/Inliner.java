@@ -0,0 +1,116 @@
+package com.craftinginterpreters.lox;
+
+/*
+Runtime rewrite of calls to small global functions into the callee's body.
+
+A function qualifies when its body is a single "return expr;" of at most MAX_NODES
+nodes that neither calls the function itself nor assigns one of its params. The
+call site then evaluates a copy of expr where every param is replaced by the
+argument expression, so no frame is allocated and no return is thrown.
+
+Substituting moves each argument from the call to every use of its param, so it
+may be evaluated zero, one or several times, after whatever the body did before
+that use. Every argument must therefore be a literal, a local or an already defined
+global (cells are never removed, reading one can't fail), and a variable argument
+is only accepted when the body neither calls nor assigns anything, since either
+could change the variable before the param is read. The Interpreter keeps the
+Cell the callee was read from and only uses the inlined body while the cell still
+holds the same function.
+*/
+
+public class Inliner extends AstRewriter {
+    static boolean enabled = true;
+    static final int MAX_NODES = 16;
+
+    static class Inlined {
+        final Globals.Cell cell;
+        final LoxFunction function;
+        final Expr body;
+
+        Inlined(Globals.Cell cell, LoxFunction function, Expr body) {
+            this.cell = cell;
+            this.function = function;
+            this.body = body;
+        }
+
+        boolean isValid() {
+            return cell.value == function;
+        }
+    }
+
+    // returned for sites that were looked at and can't be inlined, so they are only looked at once, never valid
+    static final Inlined NOT_INLINED = new Inlined(new Globals.Cell(new Object()), null, null);
+
+    private static class Rejected extends RuntimeException {
+        Rejected() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Rejected REJECTED = new Rejected();
+
+    private final Stmt.Function function;
+    private final Expr.Call call;
+    private int nodes = 0;
+    private boolean sideEffects = false; // the body calls or assigns something
+
+    private Inliner(Stmt.Function function, Expr.Call call) {
+        this.function = function;
+        this.call = call;
+    }
+
+    static Inlined inline(Expr.Call call, LoxFunction callee, Globals globals) {
+        if (!enabled || !(call.callee instanceof Expr.Variable variable) || -1 != variable.depth) { return NOT_INLINED; }
+
+        Stmt.Function declaration = callee.declaration;
+        if (callee.isCompiled() || declaration.params.size() != call.arguments.size()) { return NOT_INLINED; }
+        if (1 != declaration.body().size() || !(declaration.body().get(0) instanceof Stmt.Return ret) || null == ret.expr) { return NOT_INLINED; }
+        for (Expr argument : call.arguments) {
+            if (!isStable(argument, globals)) { return NOT_INLINED; }
+        }
+
+        try {
+            Inliner inliner = new Inliner(declaration, call);
+            Expr body = inliner.rewrite(ret.expr);
+            for (Expr argument : call.arguments) {
+                if (inliner.sideEffects && !(argument instanceof Expr.Literal)) { return NOT_INLINED; }
+            }
+            return new Inlined(globals.cell(variable.name.lexeme()), callee, body);
+        } catch (Rejected rejected) {
+            return NOT_INLINED;
+        }
+    }
+
+    private static boolean isStable(Expr argument, Globals globals) {
+        if (argument instanceof Expr.Literal) { return true; }
+        if (argument instanceof Expr.Variable variable) { return -1 != variable.depth || null != globals.cell(variable.name.lexeme()); }
+        return false;
+    }
+
+    @Override
+    Expr rewrite(Expr expr) {
+        if (null != expr && MAX_NODES < ++nodes) { throw REJECTED; }
+        return super.rewrite(expr);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        if   (0 == expr.depth) { return call.arguments.get(expr.slot); }
+        else                   { return expr; }
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        if (-1 != expr.depth) { throw REJECTED; }
+        sideEffects = true;
+        return super.visitAssignExpr(expr);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Variable variable && -1 == variable.depth
+            && variable.name.lexeme().equals(function.name.lexeme())) { throw REJECTED; }
+        sideEffects = true;
+        return super.visitCallExpr(expr);
+    }
+}
@@ -1,146 +1,222 @@
 package com.craftinginterpreters.lox;
 
-import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.List;
 
-public class Interpreter implements Expr.Visitor<Object>,
-                                    Stmt.Visitor<Void> {
-    private static class BreakStmt extends  RuntimeException {}
-    private static class ContinueStmt extends RuntimeException {}
-    public static class ReturnStmt extends RuntimeException {
+public class Interpreter implements Engine,
+                                    Expr.Visitor<Object>,
+                                    Stmt.Visitor<Interpreter.Completion> {
+    // how a statement ended when it did not simply fall through to the next one, which is null
+    enum Completion {
+        BREAK,
+        CONTINUE,
+        RETURN,   // the value is in returnValue
+        TAIL_CALL // the callee and its bound frame are in tailFunction and tailFrame
+    }
+
+    // thrown by evaluateNumber when the value turns out not to be a number, it is already fully evaluated
+    private static class UnexpectedValue extends RuntimeException {
         final Object value;
 
-        public ReturnStmt(Object value) {
+        UnexpectedValue(Object value) {
             super(null, null, false, false);
             this.value = value;
         }
     }
 
-    private Token throwToken;
-    final Environment globals = new Environment();
-    private Environment environment = globals;
+    private static final int OSR_THRESHOLD = 10000; // loop iterations before the rest of the loop is compiled
 
-    Interpreter() {
-        String name = "clock";
-        globals.define(new Token(TokenType.IDENTIFIER, name, null, -1, -1), new LoxCallable() {
-            @Override
-            public Object call(Interpreter interpreter, List<Object> args) {
-                return (double)System.currentTimeMillis() / 1000.0;
-            }
+    // returnValue of a function returning a number, which is left in returnNumber
+    private static final Object UNBOXED = new Object();
 
-            @Override
-            public int arity() { return 0; }
+    private Token throwToken;
+    final Globals globals = new Globals();
+    private Environment environment = null;
+    private ClosureCompiler osrCompiler = null;
+    final TypeFeedback feedback = new TypeFeedback();
+    // what the last Completion carries
+    private Object returnValue;
+    private double returnNumber;
+    private LoxFunction tailFunction;
+    private Environment tailFrame;
+    private Token completionToken; // keyword of the last break or continue
 
-            @Override
-            public String toString() { return "<native function>$" + name; }
-        });
+    Interpreter() {
+        globals.defineNatives();
     }
 
+    @Override
     public void interpret(List<Stmt> statements) {
         try {
             for (Stmt statement : statements) {
-                execute(statement);
+                Completion completion = execute(statement);
+                if (null != completion) { throw noLoop(completion); }
             }
         } catch (RuntimeError error) {
             ErrorReporter.error(error);
-        } catch (BreakStmt error) {
-            ErrorReporter.error(error("No loop to catch break statement"));
-        } catch (ContinueStmt error) {
-            ErrorReporter.error(error( "No loop to catch continue statement"));
         }
     }
 
-    private void execute(Stmt statement) {
-        if (null != statement) { statement.accept(this); }
+    // only a break or continue outside of any loop gets here, return is checked when it runs
+    private RuntimeError noLoop(Completion completion) {
+        if   (Completion.BREAK == completion) { return Operators.error(completionToken, "No loop to catch break statement"); }
+        else                                  { return Operators.error(completionToken, "No loop to catch continue statement"); }
+    }
+
+    private Completion execute(Stmt statement) {
+        if   (null != statement) { return statement.accept(this); }
+        else                     { return null; }
     }
 
     @Override
-    public Void visitExprStmt(Stmt.Expression stmt) {
-        evaluate(stmt.expr);
+    public Completion visitExprStmt(Stmt.Expression stmt) {
+        evaluateDiscarded(stmt.expr);
         return null;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expr);
-        System.out.println(stringify(value));
+        Output.print(value);
         return null;
     }
 
     @Override
-    public Void visitVariableStmt(Stmt.Variable stmt) {
+    public Completion visitVariableStmt(Stmt.Variable stmt) {
+        if (-1 != stmt.slot && isNumeric(stmt.initializer)) {
+            try {
+                environment.assignNumber(stmt.slot, evaluateNumber(stmt.initializer));
+            } catch (UnexpectedValue unexpected) {
+                environment.define(stmt.slot, unexpected.value);
+            }
+            return null;
+        }
+
         Object value = evaluate(stmt.initializer);
-        environment.define(stmt.name, value);
+        if   (-1 == stmt.slot) { globals.define(stmt.name, value); }
+        else                   { environment.define(stmt.slot, value); }
         return null;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.stmts, new Environment(this.environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        if   (0 == stmt.frameSize) { return executeStatements(stmt.stmts); }
+        else                       { return executeBlock(stmt.stmts, new Environment(this.environment, stmt.frameSize)); }
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
-        if (isTruthy(evaluate(stmt.condition))) { execute(stmt.ifBlock); }
-        else if (null != stmt.elseBlock)        { execute(stmt.elseBlock); }
+    public Completion visitIfStmt(Stmt.If stmt) {
+        if   (Operators.isTruthy(evaluate(stmt.condition), stmt.condition)) { return execute(stmt.ifBlock); }
+        else                                                                { return execute(stmt.elseBlock); }
+    }
 
+    @Override
+    public Completion visitWhileStmt(Stmt.While stmt) {
+        if (null != stmt.compiledLoop) { return runCompiled(stmt.compiledLoop); }
+
+        while (Operators.isTruthy(evaluate(stmt.condition), stmt.condition)) {
+            Completion completion = execute(stmt.block);
+            if (null != completion && Completion.CONTINUE != completion) {
+                if   (Completion.BREAK == completion) { return null; }
+                else                                  { return completion; }
+            }
+
+            if (Jit.enabled && OSR_THRESHOLD == ++stmt.backEdges) {
+                // on stack replacement, the compiled loop carries on with the same frame
+                stmt.compiledLoop = osrCompiler().compileLoop(stmt.condition, stmt.block, null);
+                return runCompiled(stmt.compiledLoop);
+            }
+        }
         return null;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitForStmt(Stmt.For stmt) {
+        Environment previous = this.environment;
         try {
-            while (isTruthy(evaluate(stmt.condition))) {
-                try {
-                    execute(stmt.block);
-                } catch (ContinueStmt ignored) { }
+            if (0 != stmt.frameSize) { this.environment = new Environment(previous, stmt.frameSize); }
+            execute(stmt.init);
+            if (null != stmt.compiledLoop) { return runCompiled(stmt.compiledLoop); }
+
+            while (Operators.isTruthy(evaluate(stmt.condition), stmt.condition)) {
+                Completion completion = execute(stmt.block);
+                if (null != completion && Completion.CONTINUE != completion) {
+                    if   (Completion.BREAK == completion) { return null; }
+                    else                                  { return completion; }
+                }
+                evaluateDiscarded(stmt.increase);
+
+                if (Jit.enabled && OSR_THRESHOLD == ++stmt.backEdges) {
+                    stmt.compiledLoop = osrCompiler().compileLoop(stmt.condition, stmt.block, stmt.increase);
+                    return runCompiled(stmt.compiledLoop);
+                }
             }
-        } catch (BreakStmt error) {
             return null;
+        } finally {
+            this.environment = previous;
         }
-
-        return null;
     }
 
-    @Override
-    public Void visitForStmt(Stmt.For stmt) {
-        visitBlockStmt(new Stmt.Block(Arrays.asList(
-            stmt.init,
-            new Stmt.While(
-                stmt.condition,
-                new Stmt.Block(Arrays.asList(
-                    stmt.block,
-                    new Stmt.Expression(stmt.increase)
-                ))
-            )
-        )));
+    private ClosureCompiler osrCompiler() {
+        if (null == osrCompiler) { osrCompiler = new ClosureCompiler(globals, this); }
+        return osrCompiler;
+    }
 
-        return null;
+    // compiled code returns by throwing, which becomes a Completion again here
+    private Completion runCompiled(ClosureCompiler.StmtNode loop) {
+        try {
+            loop.execute(environment);
+            return null;
+        } catch (ClosureCompiler.ReturnStmt returnStmt) {
+            returnValue = returnStmt.value;
+            return Completion.RETURN;
+        }
     }
 
     @Override
-    public Void visitBreakStmt(Stmt.Break stmt) {
-        throw new BreakStmt();
+    public Completion visitBreakStmt(Stmt.Break stmt) {
+        completionToken = stmt.keyword;
+        return Completion.BREAK;
     }
 
     @Override
-    public Void visitContinueStmt(Stmt.Continue stmt) {
-        throw new ContinueStmt();
+    public Completion visitContinueStmt(Stmt.Continue stmt) {
+        completionToken = stmt.keyword;
+        return Completion.CONTINUE;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
         LoxFunction function = new LoxFunction(stmt);
-        environment.define(stmt.name, function);
+        if   (-1 == stmt.slot) { globals.define(stmt.name, function); }
+        else                   { environment.define(stmt.slot, function); }
         return null;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
-        if (null != stmt.expr) { throw new ReturnStmt(evaluate(stmt.expr)); }
-        else                   { throw new ReturnStmt(null); }
+    public Completion visitReturnStmt(Stmt.Return stmt) {
+        if (!stmt.inFunction) { throw Operators.error(stmt.keyword, "Cannot return from top level code"); }
+        if (stmt.expr instanceof Expr.Call call) { return tailCall(call); }
+
+        if (null != stmt.expr && isNumeric(stmt.expr)) {
+            try {
+                returnNumber = evaluateNumber(stmt.expr);
+                returnValue = UNBOXED;
+            } catch (UnexpectedValue unexpected) {
+                returnValue = unexpected.value;
+            }
+            return Completion.RETURN;
+        }
+
+        returnValue = evaluate(stmt.expr);
+        return Completion.RETURN;
+    }
+
+    // runs the body of a function on a frame holding its arguments, for LoxFunction.call
+    Object call(LoxFunction function, Environment frame) {
+        Object value = runDirect(function, frame);
+        if   (UNBOXED == value) { return returnNumber; }
+        else                    { return value; }
     }
 
     @Override
@@ -151,7 +227,8 @@ public class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        if   (-1 == expr.depth) { globals.assign(expr.name, value); }
+        else                    { environment.assignAt(expr.depth, expr.slot, value); }
         return value;
     }
 
@@ -160,6 +237,20 @@ public class Interpreter implements Expr.Visitor<Object>,
         Object right = evaluate(expr.expr);
         setThrowToken(expr.operator);
 
+        switch (expr.feedback) {
+            case TypeFeedback.NUMBER  -> { if (right instanceof Double d) { return -d; } }
+            case TypeFeedback.BOOLEAN -> { if (right instanceof Boolean b) { return !b; } }
+            case TypeFeedback.GENERIC -> { return genericUnary(expr, right); }
+            default -> { }
+        }
+
+        // first evaluation or a failed guard
+        if   (TypeFeedback.UNINITIALIZED == expr.feedback) { expr.feedback = feedback.specialize(unaryFeedback(expr.operator.type, right)); }
+        else                                               { expr.feedback = feedback.deoptimize(); }
+        return genericUnary(expr, right);
+    }
+
+    private Object genericUnary(Expr.Unary expr, Object right) {
         return switch (expr.operator.type) {
             case MINUS -> -number(right);
             case BANG  -> !isTruthy(right);
@@ -169,10 +260,57 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (TypeFeedback.NUMBER == expr.feedback) { return numberSite(expr); }
+
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
         setThrowToken(expr.operator);
 
+        switch (expr.feedback) {
+            case TypeFeedback.STRING -> {
+                if (Operators.isText(left)) { return Operators.plus(left, right, expr.operator); }
+            }
+            case TypeFeedback.BOOLEAN -> {
+                if (left instanceof Boolean l && right instanceof Boolean r) {
+                    return (TokenType.EQUAL_EQUAL == expr.operator.type) == (l.booleanValue() == r.booleanValue());
+                }
+            }
+            case TypeFeedback.GENERIC -> { return genericBinary(expr, left, right); }
+            default -> { }
+        }
+
+        if   (TypeFeedback.UNINITIALIZED == expr.feedback) { expr.feedback = feedback.specialize(binaryFeedback(expr.operator.type, left, right)); }
+        else                                               { expr.feedback = feedback.deoptimize(); }
+        return genericBinary(expr, left, right);
+    }
+
+    // a NUMBER site evaluates its operands unboxed, only its own result is boxed
+    private Object numberSite(Expr.Binary expr) {
+        double left;
+        try {
+            left = evaluateNumber(expr.left);
+        } catch (UnexpectedValue unexpected) {
+            return deoptimize(expr, unexpected.value, evaluate(expr.right));
+        }
+
+        double right;
+        try {
+            right = evaluateNumber(expr.right);
+        } catch (UnexpectedValue unexpected) {
+            return deoptimize(expr, left, unexpected.value);
+        }
+
+        setThrowToken(expr.operator);
+        return numberBinary(expr.operator.type, left, right);
+    }
+
+    private Object deoptimize(Expr.Binary expr, Object left, Object right) {
+        setThrowToken(expr.operator);
+        expr.feedback = feedback.deoptimize();
+        return genericBinary(expr, left, right);
+    }
+
+    private Object genericBinary(Expr.Binary expr, Object left, Object right) {
         return switch (expr.operator.type) {
             case PLUS  -> evaluatePlus(left, right);
             case STAR  -> evaluateMultiply(left, right);
@@ -189,8 +327,64 @@ public class Interpreter implements Expr.Visitor<Object>,
         };
     }
 
+    // the specialized code of a NUMBER site, same results and errors as the generic one
+    private Object numberBinary(TokenType type, double left, double right) {
+        return switch (type) {
+            case PLUS, MINUS, STAR, SLASH -> arithmetic(type, left, right);
+            case GREATER       -> left > right;
+            case LESS          -> left < right;
+            case GREATER_EQUAL -> left >= right;
+            case LESS_EQUAL    -> left <= right;
+            case BANG_EQUAL    -> 0 != Double.compare(left, right);
+            case EQUAL_EQUAL   -> 0 == Double.compare(left, right);
+            default -> throw error("Unknown Binary Operator");
+        };
+    }
+
+    private double arithmetic(TokenType type, double left, double right) {
+        return switch (type) {
+            case PLUS  -> left + right;
+            case MINUS -> left - right;
+            case STAR  -> left * right;
+            case SLASH -> {
+                if (right == 0) { throw error("Cannot divide by zero"); }
+                yield left / right;
+            }
+            default -> throw error("Unknown Binary Operator");
+        };
+    }
+
+    private static boolean isArithmetic(TokenType type) {
+        return TokenType.PLUS == type || TokenType.MINUS == type || TokenType.STAR == type || TokenType.SLASH == type;
+    }
+
+    private static byte unaryFeedback(TokenType type, Object right) {
+        if      (TokenType.MINUS == type && right instanceof Double) { return TypeFeedback.NUMBER; }
+        else if (TokenType.BANG == type && right instanceof Boolean) { return TypeFeedback.BOOLEAN; }
+        else                                                         { return TypeFeedback.GENERIC; }
+    }
+
+    private static byte binaryFeedback(TokenType type, Object left, Object right) {
+        boolean numbers = left instanceof Double && right instanceof Double;
+        return switch (type) {
+            case PLUS -> {
+                if      (Operators.isText(left)) { yield TypeFeedback.STRING; }
+                else if (numbers)                { yield TypeFeedback.NUMBER; }
+                else                             { yield TypeFeedback.GENERIC; }
+            }
+            case MINUS, STAR, SLASH, GREATER, LESS, GREATER_EQUAL, LESS_EQUAL ->
+                numbers ? TypeFeedback.NUMBER : TypeFeedback.GENERIC;
+            case EQUAL_EQUAL, BANG_EQUAL -> {
+                if      (numbers)                                               { yield TypeFeedback.NUMBER; }
+                else if (left instanceof Boolean && right instanceof Boolean) { yield TypeFeedback.BOOLEAN; }
+                else                                                            { yield TypeFeedback.GENERIC; }
+            }
+            default -> TypeFeedback.GENERIC;
+        };
+    }
+
     public Object visitTernaryExpr(Expr.Ternary expr) {
-        boolean condition = isTruthy(evaluate(expr.condition));
+        boolean condition = Operators.isTruthy(evaluate(expr.condition), expr.condition);
         Object first = evaluate(expr.first);
         Object second = evaluate(expr.second);
         setThrowToken(null);
@@ -205,17 +399,35 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return environment.get(expr.name);
+        if   (-1 == expr.depth) { return globals.get(expr.name); }
+        else                    { return environment.getAt(expr.depth, expr.slot); }
     }
 
     @Override
     public Object visitLogicalExpr(Expr.Logical expr) {
-        boolean left = isTruthy(evaluate(expr.left));
+        Object left = evaluate(expr.left);
+
+        if (TypeFeedback.BOOLEAN == expr.feedback && left instanceof Boolean l) {
+            if (l != (TokenType.AND == expr.operator.type)) { return l; }
+
+            Object right = evaluate(expr.right);
+            if (right instanceof Boolean r) { return r; }
+            expr.feedback = feedback.deoptimize();
+            return Operators.isTruthy(right, expr.operator);
+        }
+
+        if      (TypeFeedback.UNINITIALIZED == expr.feedback) { expr.feedback = feedback.specialize(left instanceof Boolean ? TypeFeedback.BOOLEAN : TypeFeedback.GENERIC); }
+        else if (TypeFeedback.BOOLEAN == expr.feedback)       { expr.feedback = feedback.deoptimize(); }
+        return genericLogical(expr, left);
+    }
+
+    private Object genericLogical(Expr.Logical expr, Object leftValue) {
+        boolean left = Operators.isTruthy(leftValue, expr.operator);
         TokenType type= expr.operator.type;
 
         if ((TokenType.AND == type && left) ||
              TokenType.OR == type && !left) {
-            return isTruthy(evaluate(expr.right));
+            return Operators.isTruthy(evaluate(expr.right), expr.operator);
         } else {
             return left;
         }
@@ -223,13 +435,23 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        if (null != expr.inlined && expr.inlined.isValid()) { return evaluate(expr.inlined.body); }
+
         Object callee = evaluate(expr.callee);
         setThrowToken(expr.rightParen);
 
-        List<Object> args = new ArrayList<>();
-        for (Expr arg : expr.arguments) {
-            args.add(evaluate(arg));
+        if (inline(expr, callee)) { return evaluate(expr.inlined.body); }
+
+        if (isDirectCall(callee, expr)) {
+            Object result = callDirect((LoxFunction)callee, expr.arguments);
+            if   (UNBOXED == result) { return returnNumber; }
+            else                     { return result; }
         }
+        return genericCall(expr, callee);
+    }
+
+    private Object genericCall(Expr.Call expr, Object callee) {
+        List<Object> args = evaluateArguments(expr.arguments);
 
         if (callee instanceof LoxCallable func) {
             if (func.arity() != args.size()) {
@@ -242,87 +464,261 @@ public class Interpreter implements Expr.Visitor<Object>,
         }
     }
 
+    private List<Object> evaluateArguments(List<Expr> arguments) {
+        List<Object> args = new ArrayList<>();
+        for (Expr arg : arguments) {
+            args.add(evaluate(arg));
+        }
+        return args;
+    }
+
+    // looks at a site the first time it calls a function, and again whenever the global it read was redefined
+    private boolean inline(Expr.Call expr, Object callee) {
+        if (Inliner.NOT_INLINED == expr.inlined || !(callee instanceof LoxFunction function)) { return false; }
+
+        expr.inlined = Inliner.inline(expr, function, globals);
+        return Inliner.NOT_INLINED != expr.inlined;
+    }
+
+    // a function run by this interpreter gets its arguments straight into its frame, numbers stay unboxed
+    private boolean isDirectCall(Object callee, Expr.Call expr) {
+        return callee instanceof LoxFunction function && !function.isCompiled()
+            && function.arity() == expr.arguments.size() && !function.tierUp(this);
+    }
+
+    // evaluates a call in return position, a function run by this interpreter is not called but bound for the
+    // caller to run, so tail recursion takes no Java stack. A kernel runs its own tail recursion as a loop
+    private Completion tailCall(Expr.Call expr) {
+        if (null != expr.inlined && expr.inlined.isValid()) { return returning(evaluate(expr.inlined.body)); }
+
+        Object callee = evaluate(expr.callee);
+        setThrowToken(expr.rightParen);
+
+        if (inline(expr, callee)) { return returning(evaluate(expr.inlined.body)); }
+
+        if (callee instanceof LoxFunction function && !function.isCompiled() && function.arity() == expr.arguments.size()) {
+            if (function.tierUp(this)) {
+                List<Object> args = evaluateArguments(expr.arguments);
+                Object result = function.runKernel(args);
+                if (Jit.DEOPT != result) { return returning(result); }
+                tailFrame = function.frame(args);
+            } else {
+                tailFrame = bindArguments(function, expr.arguments);
+            }
+            tailFunction = function;
+            return Completion.TAIL_CALL;
+        }
+        return returning(genericCall(expr, callee));
+    }
+
+    private Completion returning(Object value) {
+        returnValue = value;
+        return Completion.RETURN;
+    }
+
+    // returns UNBOXED when the result is in returnNumber
+    private Object callDirect(LoxFunction function, List<Expr> arguments) {
+        return runDirect(function, bindArguments(function, arguments));
+    }
+
+    // runs function on a frame holding its arguments, and then every function it tail calls, returns like callDirect
+    private Object runDirect(LoxFunction function, Environment frame) {
+        for (;;) {
+            Completion completion = executeBlock(function.declaration.body(), frame);
+            if (Completion.RETURN == completion) {
+                Object value = returnValue;
+                returnValue = null;
+                return value;
+            }
+            if (null == completion) { return null; }
+            if (Completion.TAIL_CALL != completion) { throw noLoop(completion); }
+
+            function = tailFunction;
+            frame = tailFrame;
+        }
+    }
+
+    private Environment bindArguments(LoxFunction function, List<Expr> arguments) {
+        Environment frame = new Environment(null, function.declaration.frameSize());
+        for (int i = 0; i < arguments.size(); ++i) {
+            Expr argument = arguments.get(i);
+            if (isNumeric(argument)) {
+                try {
+                    frame.assignNumber(i, evaluateNumber(argument));
+                } catch (UnexpectedValue unexpected) {
+                    frame.define(i, unexpected.value);
+                }
+            } else {
+                frame.define(i, evaluate(argument));
+            }
+        }
+        return frame;
+    }
+
     private Object evaluate(Expr expr) {
         if   (null == expr) { return null; }
         else                { return expr.accept(this); }
     }
 
+    // true when expr is expected to produce a number, so evaluating it unboxed pays off
+    private boolean isNumeric(Expr expr) {
+        if      (expr instanceof Expr.Binary binary)     { return TypeFeedback.NUMBER == binary.feedback && isArithmetic(binary.operator.type); }
+        else if (expr instanceof Expr.Variable variable) { return -1 != variable.depth && environment.ancestor(variable.depth).isNumber(variable.slot); }
+        else if (expr instanceof Expr.Literal literal)   { return literal.value instanceof Double; }
+        else if (expr instanceof Expr.Unary unary)       { return TypeFeedback.NUMBER == unary.feedback; }
+        else if (expr instanceof Expr.Grouping grouping) { return isNumeric(grouping.expr); }
+        else                                             { return false; }
+    }
+
+    // same as evaluate but without boxing, throws UnexpectedValue when the value is not a number
+    private double evaluateNumber(Expr expr) {
+        if      (expr instanceof Expr.Variable variable) { return variableNumber(variable); }
+        else if (expr instanceof Expr.Binary binary)     { return binaryNumber(binary); }
+        else if (expr instanceof Expr.Literal literal)   { return expectNumber(literal.value); }
+        else if (expr instanceof Expr.Assign assign)     { return assignNumber(assign); }
+        else if (expr instanceof Expr.Unary unary)       { return unaryNumber(unary); }
+        else if (expr instanceof Expr.Grouping grouping) { return evaluateNumber(grouping.expr); }
+        else if (expr instanceof Expr.Call call)         { return callNumber(call); }
+        else                                             { return expectNumber(evaluate(expr)); }
+    }
+
+    private double variableNumber(Expr.Variable expr) {
+        if (-1 == expr.depth) { return expectNumber(globals.get(expr.name)); }
+
+        Environment frame = environment.ancestor(expr.depth);
+        if   (frame.isNumber(expr.slot)) { return frame.number(expr.slot); }
+        else                             { return expectNumber(frame.get(expr.slot)); }
+    }
+
+    private double binaryNumber(Expr.Binary expr) {
+        if (TypeFeedback.NUMBER != expr.feedback || !isArithmetic(expr.operator.type)) { return expectNumber(visitBinaryExpr(expr)); }
+
+        double left;
+        try {
+            left = evaluateNumber(expr.left);
+        } catch (UnexpectedValue unexpected) {
+            return expectNumber(deoptimize(expr, unexpected.value, evaluate(expr.right)));
+        }
+
+        double right;
+        try {
+            right = evaluateNumber(expr.right);
+        } catch (UnexpectedValue unexpected) {
+            return expectNumber(deoptimize(expr, left, unexpected.value));
+        }
+
+        setThrowToken(expr.operator);
+        return arithmetic(expr.operator.type, left, right);
+    }
+
+    private double assignNumber(Expr.Assign expr) {
+        if (-1 == expr.depth) { return expectNumber(visitAssignExpr(expr)); }
+
+        double value;
+        try {
+            value = evaluateNumber(expr.value);
+        } catch (UnexpectedValue unexpected) {
+            environment.assignAt(expr.depth, expr.slot, unexpected.value);
+            throw unexpected;
+        }
+        environment.ancestor(expr.depth).assignNumber(expr.slot, value);
+        return value;
+    }
+
+    private double unaryNumber(Expr.Unary expr) {
+        if (TypeFeedback.NUMBER != expr.feedback) { return expectNumber(visitUnaryExpr(expr)); }
+
+        double right;
+        try {
+            right = evaluateNumber(expr.expr);
+        } catch (UnexpectedValue unexpected) {
+            setThrowToken(expr.operator);
+            expr.feedback = feedback.deoptimize();
+            return expectNumber(genericUnary(expr, unexpected.value));
+        }
+        setThrowToken(expr.operator);
+        return -right;
+    }
+
+    private double callNumber(Expr.Call expr) {
+        if (null != expr.inlined && expr.inlined.isValid()) { return evaluateNumber(expr.inlined.body); }
+
+        Object callee = evaluate(expr.callee);
+        setThrowToken(expr.rightParen);
+
+        if (inline(expr, callee)) { return evaluateNumber(expr.inlined.body); }
+
+        if (isDirectCall(callee, expr)) {
+            Object result = callDirect((LoxFunction)callee, expr.arguments);
+            if   (UNBOXED == result) { return returnNumber; }
+            else                     { return expectNumber(result); }
+        }
+        return expectNumber(genericCall(expr, callee));
+    }
+
+    private static double expectNumber(Object value) {
+        if   (value instanceof Double d) { return d; }
+        else                             { throw new UnexpectedValue(value); }
+    }
+
+    // evaluates an expression whose value is not used, a number assigned to a local is stored unboxed
+    private void evaluateDiscarded(Expr expr) {
+        if (expr instanceof Expr.Assign assign && -1 != assign.depth && isNumeric(assign.value)) {
+            try {
+                evaluateNumber(assign);
+            } catch (UnexpectedValue ignored) { }
+        } else {
+            evaluate(expr);
+        }
+    }
+
     private boolean isTruthy(Object obj) {
-        if      (null == obj)              { return false; }
-        else if (obj instanceof Boolean b) { return b; }
-        else if (obj instanceof Double d)  { return d != 0.0; }
-        else if (obj instanceof String s)  { return !s.isEmpty(); }
-        else                               { throw error("Unknown Truthy convention"); }
+        return Operators.isTruthy(obj, throwToken);
     }
 
     private boolean isEqual(Object left, Object right) {
-        if      (null == left && null == right) { return true; }
-        else if (null == left)                  { return false; }
-        else                                    { return left.equals(right); }
+        return Operators.isEqual(left, right);
     }
 
     private Object evaluatePlus(Object left, Object right) {
-        if      (left instanceof String)  { return left + stringify(right); }
-        else if (right instanceof Double) { return (double)left + (double)right; }
-        else { throw error("Cannot do plus on lhs number and rhs string"); }
+        return Operators.plus(left, right, throwToken);
     }
 
     private Object evaluateMultiply(Object left, Object right) {
-        if (right instanceof Double r) {
-            if (left instanceof Double l) {
-                return l * r;
-            } else {
-                String text = (String)left;
-                int rep = (int)(double)right;
-                return text.repeat(rep);
-            }
-        } else {
-            throw error("Rhs of multiply must be a number");
-        }
+        return Operators.multiply(left, right, throwToken);
     }
 
     private Object evaluateDivide(Object left, Object right) {
-        double a = number(left);
-        double b = number(right);
-
-        if (b == 0) { throw error("Cannot divide by zero"); }
-        else        { return a / b; }
+        return Operators.divide(left, right, throwToken);
     }
 
     private double number(Object obj) {
-        if   (obj instanceof Double d) { return d; }
-        else                           { throw error("Operand must be a number"); }
-    }
-
-    private String stringify(Object obj) {
-        if (obj == null) return "nil";
-        else if (obj instanceof Double) {
-            String text = obj.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
-        }
-        return obj.toString();
+        return Operators.number(obj, throwToken);
     }
 
-    public void executeBlock(List<Stmt> stmts, Environment environment) {
+    public Completion executeBlock(List<Stmt> stmts, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
-            for (Stmt stmt : stmts) {
-                execute(stmt);
-            }
+            return executeStatements(stmts);
         } finally {
             this.environment = previous;
         }
     }
 
+    private Completion executeStatements(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            Completion completion = execute(stmt);
+            if (null != completion) { return completion; }
+        }
+        return null;
+    }
+
     private void setThrowToken(Token throwToken) {
         this.throwToken = throwToken;
     }
 
     private RuntimeError error(String message) {
-        return new RuntimeError(throwToken, "Interpreter", message);
+        return Operators.error(throwToken, message);
     }
 }
@@ -0,0 +1,488 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Compiles hot pure numeric LoxFunctions into JVM bytecode.
+
+A function qualifies when every value it touches is a number: params and locals are
+doubles, it only calls global functions that qualify too, and it never prints, defines
+functions or reads and writes globals. Booleans may only show up as conditions.
+Such a function has no side effects, so whenever the compiled code meets something
+it did not expect (a global function was redefined, division by zero, falling off
+the end and returning nil) it throws DEOPT and the whole call is simply run again
+by the interpreter, which then produces the right value or error.
+
+Each compiled function becomes a hidden class holding one static method
+"double fN(double...)" per reachable function, calls between them are plain
+invokestatic guarded by a check of the callee's global Cell. A function returning a
+call to itself stores the arguments into its params and jumps back to its start,
+so tail recursion runs in constant JVM stack.
+*/
+
+final class Jit {
+    static boolean enabled = true;
+    static final int THRESHOLD = 1000; // calls before a function is compiled
+    static final int MAX_DEOPTS = 16;  // a kernel deoptimizing more often is dropped
+
+    interface Kernel {
+        Object call(List<Object> args);
+    }
+
+    static final class Deopt extends RuntimeException {
+        private Deopt() {
+            super(null, null, false, false);
+        }
+    }
+
+    static final Deopt DEOPT = new Deopt();
+
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static class Loop {
+        final ClassFileWriter.Label breakLabel;
+        final ClassFileWriter.Label continueLabel;
+
+        Loop(ClassFileWriter.Label breakLabel, ClassFileWriter.Label continueLabel) {
+            this.breakLabel = breakLabel;
+            this.continueLabel = continueLabel;
+        }
+    }
+
+    private static final String PACKAGE = "com/craftinginterpreters/lox/";
+    private static final String CELL = PACKAGE + "Globals$Cell";
+    private static final String JIT = PACKAGE + "Jit";
+
+    private final Globals globals;
+    private final ClassFileWriter writer;
+    private final String className;
+    private final Map<LoxFunction, Integer> methods = new IdentityHashMap<>();
+    private final List<LoxFunction> pending = new ArrayList<>();
+    private final Map<Object, String> fields = new IdentityHashMap<>();
+    private final Map<String, Object> fieldValues = new HashMap<>();
+
+    // state of the method being compiled
+    private ClassFileWriter.Code code;
+    private LoxFunction function;
+    private ClassFileWriter.Label entry;
+    private final List<Integer> frames = new ArrayList<>(); // first JVM local of every enclosing frame
+    private int nextLocal = 0;
+    private final List<Loop> loops = new ArrayList<>();
+
+    private Jit(Globals globals) {
+        this.globals = globals;
+        this.className = PACKAGE + "JitKernel";
+        this.writer = new ClassFileWriter(className, "java/lang/Object", JIT + "$Kernel");
+    }
+
+    // returns null when the function does not qualify or the class cannot be built
+    static Kernel compile(LoxFunction function, Globals globals) {
+        try {
+            return new Jit(globals).build(function);
+        } catch (RuntimeException | LinkageError | ReflectiveOperationException error) {
+            return null;
+        }
+    }
+
+    private Kernel build(LoxFunction root) throws ReflectiveOperationException {
+        methodIndex(root);
+        for (int i = 0; i < pending.size(); ++i) {
+            compileMethod(pending.get(i), i);
+        }
+        emitConstructor();
+        emitBridge(root);
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(writer.toByteArray(), true);
+        Class<?> kernel = lookup.lookupClass();
+        for (Map.Entry<String, Object> field : fieldValues.entrySet()) {
+            lookup.findStaticVarHandle(kernel, field.getKey(), field.getValue().getClass()).set(field.getValue());
+        }
+        return (Kernel)kernel.getDeclaredConstructor().newInstance();
+    }
+
+    private int methodIndex(LoxFunction function) {
+        Integer index = methods.get(function);
+        if (null != index) { return index; }
+
+        methods.put(function, pending.size());
+        pending.add(function);
+        return pending.size() - 1;
+    }
+
+    private static String descriptor(int arity) {
+        return "(" + "D".repeat(arity) + ")D";
+    }
+
+    private void compileMethod(LoxFunction function, int index) {
+        Stmt.Function declaration = function.declaration;
+        int arity = declaration.params.size();
+        code = writer.method(ClassFileWriter.ACC_PUBLIC | ClassFileWriter.ACC_STATIC,
+                             "f" + index, descriptor(arity), 2 * arity);
+
+        this.function = function;
+        entry = code.label();
+        code.mark(entry);
+        frames.clear();
+        loops.clear();
+        frames.add(0);
+        nextLocal = 2 * declaration.frameSize();
+        for (Stmt stmt : declaration.body()) {
+            compile(stmt);
+        }
+        // falling off the end returns nil, which is not a number
+        emitDeopt();
+    }
+
+    private void emitConstructor() {
+        ClassFileWriter.Code init = writer.method(ClassFileWriter.ACC_PUBLIC, "<init>", "()V", 1);
+        init.local(ClassFileWriter.ALOAD, 1, 0);
+        init.opShort(ClassFileWriter.INVOKESPECIAL, -1, writer.methodRef("java/lang/Object", "<init>", "()V"));
+        init.op(ClassFileWriter.RETURN, 0);
+    }
+
+    // Object call(List<Object> args), the caller made sure every argument is a Double
+    private void emitBridge(LoxFunction root) {
+        int arity = root.declaration.params.size();
+        ClassFileWriter.Code bridge = writer.method(ClassFileWriter.ACC_PUBLIC, "call",
+                                                    "(Ljava/util/List;)Ljava/lang/Object;", 2);
+        for (int i = 0; i < arity; ++i) {
+            bridge.local(ClassFileWriter.ALOAD, 1, 1);
+            bridge.pushInt(i);
+            bridge.invokeInterface(writer.interfaceMethodRef("java/util/List", "get", "(I)Ljava/lang/Object;"), 1, -1);
+            bridge.opShort(ClassFileWriter.CHECKCAST, 0, writer.classRef("java/lang/Double"));
+            bridge.opShort(ClassFileWriter.INVOKEVIRTUAL, 1, writer.methodRef("java/lang/Double", "doubleValue", "()D"));
+        }
+        bridge.opShort(ClassFileWriter.INVOKESTATIC, 2 - 2 * arity, writer.methodRef(className, "f0", descriptor(arity)));
+        bridge.opShort(ClassFileWriter.INVOKESTATIC, -1, writer.methodRef("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;"));
+        bridge.op(ClassFileWriter.ARETURN, -1);
+    }
+
+    private void compile(Stmt stmt) {
+        if (stmt instanceof Stmt.Expression expression) {
+            compileNumber(expression.expr);
+            code.op(ClassFileWriter.POP2, -2);
+        } else if (stmt instanceof Stmt.Variable variable) {
+            if (null == variable.initializer || -1 == variable.slot) { throw new Unsupported(); }
+            compileNumber(variable.initializer);
+            code.local(ClassFileWriter.DSTORE, -2, local(0, variable.slot));
+        } else if (stmt instanceof Stmt.Block block) {
+            int previous = enterFrame(block.frameSize);
+            for (Stmt inner : block.stmts) {
+                compile(inner);
+            }
+            exitFrame(block.frameSize, previous);
+        } else if (stmt instanceof Stmt.If ifStmt) {
+            ClassFileWriter.Label elseLabel = code.label();
+            ClassFileWriter.Label end = code.label();
+            branch(ifStmt.condition, false, elseLabel);
+            compileOptional(ifStmt.ifBlock);
+            code.jump(ClassFileWriter.GOTO, 0, end);
+            code.mark(elseLabel);
+            compileOptional(ifStmt.elseBlock);
+            code.mark(end);
+        } else if (stmt instanceof Stmt.While whileStmt) {
+            ClassFileWriter.Label start = code.label();
+            ClassFileWriter.Label end = code.label();
+            code.mark(start);
+            branch(whileStmt.condition, false, end);
+            loops.add(new Loop(end, start));
+            compileOptional(whileStmt.block);
+            loops.remove(loops.size() - 1);
+            code.jump(ClassFileWriter.GOTO, 0, start);
+            code.mark(end);
+        } else if (stmt instanceof Stmt.For forStmt) {
+            int previous = enterFrame(forStmt.frameSize);
+            compileOptional(forStmt.init);
+
+            ClassFileWriter.Label start = code.label();
+            ClassFileWriter.Label increase = code.label();
+            ClassFileWriter.Label end = code.label();
+            code.mark(start);
+            if (null != forStmt.condition) { branch(forStmt.condition, false, end); }
+            loops.add(new Loop(end, increase));
+            compileOptional(forStmt.block);
+            loops.remove(loops.size() - 1);
+            code.mark(increase);
+            if (null != forStmt.increase) {
+                compileNumber(forStmt.increase);
+                code.op(ClassFileWriter.POP2, -2);
+            }
+            code.jump(ClassFileWriter.GOTO, 0, start);
+            code.mark(end);
+
+            exitFrame(forStmt.frameSize, previous);
+        } else if (stmt instanceof Stmt.Break) {
+            // a break outside any loop is an error, leave reporting it to the interpreter
+            if (loops.isEmpty()) { throw new Unsupported(); }
+            code.jump(ClassFileWriter.GOTO, 0, loops.get(loops.size() - 1).breakLabel);
+            code.unreachable();
+        } else if (stmt instanceof Stmt.Continue) {
+            if (loops.isEmpty()) { throw new Unsupported(); }
+            code.jump(ClassFileWriter.GOTO, 0, loops.get(loops.size() - 1).continueLabel);
+            code.unreachable();
+        } else if (stmt instanceof Stmt.Return returnStmt) {
+            if (null == returnStmt.expr) { throw new Unsupported(); }
+            if (returnStmt.expr instanceof Expr.Call call) {
+                LoxFunction callee = guardCallee(call);
+                if (function == callee) {
+                    compileTailCall(call);
+                    code.unreachable();
+                    return;
+                }
+                compileInvoke(callee, call);
+            } else {
+                compileNumber(returnStmt.expr);
+            }
+            code.op(ClassFileWriter.DRETURN, -2);
+            code.unreachable();
+        } else {
+            throw new Unsupported();
+        }
+    }
+
+    private void compileOptional(Stmt stmt) {
+        if (null != stmt) { compile(stmt); }
+    }
+
+    // pushes the value of expr, which must be a number, as a double
+    private void compileNumber(Expr expr) {
+        if (expr instanceof Expr.Literal literal) {
+            if (!(literal.value instanceof Double value)) { throw new Unsupported(); }
+            code.pushDouble(value);
+        } else if (expr instanceof Expr.Grouping grouping) {
+            compileNumber(grouping.expr);
+        } else if (expr instanceof Expr.Variable variable) {
+            if (-1 == variable.depth) { throw new Unsupported(); }
+            code.local(ClassFileWriter.DLOAD, 2, local(variable.depth, variable.slot));
+        } else if (expr instanceof Expr.Assign assign) {
+            if (-1 == assign.depth) { throw new Unsupported(); }
+            compileNumber(assign.value);
+            code.op(ClassFileWriter.DUP2, 2);
+            code.local(ClassFileWriter.DSTORE, -2, local(assign.depth, assign.slot));
+        } else if (expr instanceof Expr.Unary unary) {
+            if (TokenType.MINUS != unary.operator.type) { throw new Unsupported(); }
+            compileNumber(unary.expr);
+            code.op(ClassFileWriter.DNEG, 0);
+        } else if (expr instanceof Expr.Binary binary) {
+            compileArithmetic(binary);
+        } else if (expr instanceof Expr.Ternary ternary) {
+            // the interpreter evaluates the condition, then both branches, so does the compiled code;
+            // the condition is kept as 1.0 or 0.0 in a scratch local past the current frames
+            int condition = nextLocal;
+            nextLocal += 2;
+            ClassFileWriter.Label falsy = code.label();
+            ClassFileWriter.Label stored = code.label();
+            branch(ternary.condition, false, falsy);
+            code.op(ClassFileWriter.DCONST_1, 2);
+            code.jump(ClassFileWriter.GOTO, 0, stored);
+            code.mark(falsy);
+            code.op(ClassFileWriter.DCONST_0, 2);
+            code.mark(stored);
+            code.local(ClassFileWriter.DSTORE, -2, condition);
+
+            ClassFileWriter.Label second = code.label();
+            ClassFileWriter.Label end = code.label();
+            compileNumber(ternary.first);
+            compileNumber(ternary.second);
+            nextLocal = condition;
+            code.local(ClassFileWriter.DLOAD, 2, condition);
+            code.op(ClassFileWriter.DCONST_0, 2);
+            code.op(ClassFileWriter.DCMPL, -3);
+            code.jump(ClassFileWriter.IFEQ, -1, second);
+            code.op(ClassFileWriter.POP2, -2);
+            code.jump(ClassFileWriter.GOTO, 0, end);
+            code.mark(second);
+            code.op(ClassFileWriter.DUP2_X2, 2);
+            code.op(ClassFileWriter.POP2, -2);
+            code.op(ClassFileWriter.POP2, -2);
+            code.mark(end);
+        } else if (expr instanceof Expr.Call call) {
+            compileCall(call);
+        } else {
+            throw new Unsupported();
+        }
+    }
+
+    private void compileArithmetic(Expr.Binary binary) {
+        TokenType type = binary.operator.type;
+        if (TokenType.COMMA == type) {
+            compileNumber(binary.left);
+            code.op(ClassFileWriter.POP2, -2);
+            compileNumber(binary.right);
+            return;
+        }
+
+        compileNumber(binary.left);
+        compileNumber(binary.right);
+        switch (type) {
+            case PLUS  -> code.op(ClassFileWriter.DADD, -2);
+            case MINUS -> code.op(ClassFileWriter.DSUB, -2);
+            case STAR  -> code.op(ClassFileWriter.DMUL, -2);
+            case SLASH -> {
+                // division by zero is a runtime error the interpreter reports
+                ClassFileWriter.Label ok = code.label();
+                code.op(ClassFileWriter.DUP2, 2);
+                code.op(ClassFileWriter.DCONST_0, 2);
+                code.op(ClassFileWriter.DCMPL, -3);
+                code.jump(ClassFileWriter.IFNE, -1, ok);
+                emitDeopt();
+                code.mark(ok);
+                code.op(ClassFileWriter.DDIV, -2);
+            }
+            default -> throw new Unsupported();
+        }
+    }
+
+    private void compileCall(Expr.Call call) {
+        compileInvoke(guardCallee(call), call);
+    }
+
+    private void compileInvoke(LoxFunction callee, Expr.Call call) {
+        int arity = callee.declaration.params.size();
+        for (Expr argument : call.arguments) {
+            compileNumber(argument);
+        }
+        int index = methodIndex(callee);
+        code.opShort(ClassFileWriter.INVOKESTATIC, 2 - 2 * arity, writer.methodRef(className, "f" + index, descriptor(arity)));
+    }
+
+    // the arguments are all evaluated before the first param is overwritten
+    private void compileTailCall(Expr.Call call) {
+        for (Expr argument : call.arguments) {
+            compileNumber(argument);
+        }
+        for (int i = call.arguments.size() - 1; i >= 0; --i) {
+            code.local(ClassFileWriter.DSTORE, -2, 2 * i);
+        }
+        code.jump(ClassFileWriter.GOTO, 0, entry);
+    }
+
+    // emits the check that the callee's global still holds the function it holds now, which is returned
+    private LoxFunction guardCallee(Expr.Call call) {
+        if (!(call.callee instanceof Expr.Variable variable) || -1 != variable.depth) { throw new Unsupported(); }
+
+        Globals.Cell cell = globals.cell(variable.name.lexeme());
+        if (null == cell || !(cell.value instanceof LoxFunction callee)) { throw new Unsupported(); }
+        if (callee.declaration.params.size() != call.arguments.size()) { throw new Unsupported(); }
+
+        // the global may be redefined later, the call is only valid while it holds this function
+        ClassFileWriter.Label ok = code.label();
+        code.opShort(ClassFileWriter.GETSTATIC, 1, writer.fieldRef(className, field(cell), "L" + CELL + ";"));
+        code.opShort(ClassFileWriter.GETFIELD, 0, writer.fieldRef(CELL, "value", "Ljava/lang/Object;"));
+        code.opShort(ClassFileWriter.GETSTATIC, 1, writer.fieldRef(className, field(callee), "L" + PACKAGE + "LoxFunction;"));
+        code.jump(ClassFileWriter.IF_ACMPEQ, -2, ok);
+        emitDeopt();
+        code.mark(ok);
+        return callee;
+    }
+
+    // jumps to target when the truthiness of expr equals when
+    private void branch(Expr expr, boolean when, ClassFileWriter.Label target) {
+        if (expr instanceof Expr.Literal literal && !(literal.value instanceof Double)) {
+            if (!(null == literal.value || literal.value instanceof Boolean)) { throw new Unsupported(); }
+            if (Operators.isTruthy(literal.value, literal) == when) { code.jump(ClassFileWriter.GOTO, 0, target); }
+        } else if (expr instanceof Expr.Grouping grouping) {
+            branch(grouping.expr, when, target);
+        } else if (expr instanceof Expr.Unary unary && TokenType.BANG == unary.operator.type) {
+            branch(unary.expr, !when, target);
+        } else if (expr instanceof Expr.Logical logical) {
+            // a and b is true when both are, a or b is false when both are
+            boolean shortCircuit = TokenType.AND == logical.operator.type;
+            if (shortCircuit != when) {
+                branch(logical.left, when, target);
+                branch(logical.right, when, target);
+            } else {
+                ClassFileWriter.Label skip = code.label();
+                branch(logical.left, !when, skip);
+                branch(logical.right, when, target);
+                code.mark(skip);
+            }
+        } else if (expr instanceof Expr.Binary binary && isComparison(binary.operator.type)) {
+            compileNumber(binary.left);
+            compileNumber(binary.right);
+            compareAndJump(binary.operator.type, when, target);
+        } else {
+            compileNumber(expr);
+            code.op(ClassFileWriter.DCONST_0, 2);
+            code.op(ClassFileWriter.DCMPL, -3);
+            code.jump(when ? ClassFileWriter.IFNE : ClassFileWriter.IFEQ, -1, target);
+        }
+    }
+
+    private static boolean isComparison(TokenType type) {
+        return switch (type) {
+            case GREATER, GREATER_EQUAL, LESS, LESS_EQUAL, EQUAL_EQUAL, BANG_EQUAL -> true;
+            default -> false;
+        };
+    }
+
+    // NaN compares false with everything, dcmpg and dcmpl are picked so that it takes the false side
+    private void compareAndJump(TokenType type, boolean when, ClassFileWriter.Label target) {
+        if (TokenType.EQUAL_EQUAL == type || TokenType.BANG_EQUAL == type) {
+            // isEqual uses Double.equals, which Double.compare agrees with
+            code.opShort(ClassFileWriter.INVOKESTATIC, -3, writer.methodRef("java/lang/Double", "compare", "(DD)I"));
+            boolean equal = (TokenType.EQUAL_EQUAL == type) == when;
+            code.jump(equal ? ClassFileWriter.IFEQ : ClassFileWriter.IFNE, -1, target);
+            return;
+        }
+
+        boolean less = TokenType.LESS == type || TokenType.LESS_EQUAL == type;
+        code.op(less ? ClassFileWriter.DCMPG : ClassFileWriter.DCMPL, -3);
+        int opcode = switch (type) {
+            case LESS          -> when ? ClassFileWriter.IFLT : ClassFileWriter.IFGE;
+            case LESS_EQUAL    -> when ? ClassFileWriter.IFLE : ClassFileWriter.IFGT;
+            case GREATER       -> when ? ClassFileWriter.IFGT : ClassFileWriter.IFLE;
+            case GREATER_EQUAL -> when ? ClassFileWriter.IFGE : ClassFileWriter.IFLT;
+            default -> throw new Unsupported();
+        };
+        code.jump(opcode, -1, target);
+    }
+
+    private void emitDeopt() {
+        code.opShort(ClassFileWriter.GETSTATIC, 1, writer.fieldRef(JIT, "DEOPT", "L" + JIT + "$Deopt;"));
+        code.op(ClassFileWriter.ATHROW, -1);
+    }
+
+    private String field(Object value) {
+        String name = fields.get(value);
+        if (null != name) { return name; }
+
+        name = "k" + fields.size();
+        String type = value instanceof Globals.Cell ? "L" + CELL + ";" : "L" + PACKAGE + "LoxFunction;";
+        writer.field(ClassFileWriter.ACC_STATIC, name, type);
+        fields.put(value, name);
+        fieldValues.put(name, value);
+        return name;
+    }
+
+    private int enterFrame(int frameSize) {
+        int previous = nextLocal;
+        if (0 != frameSize) {
+            frames.add(nextLocal);
+            nextLocal += 2 * frameSize;
+        }
+        return previous;
+    }
+
+    private void exitFrame(int frameSize, int previous) {
+        if (0 != frameSize) {
+            frames.remove(frames.size() - 1);
+            nextLocal = previous;
+        }
+    }
+
+    private int local(int depth, int slot) {
+        int frame = frames.size() - 1 - depth;
+        if (frame < 0) { throw new Unsupported(); }
+        return frames.get(frame) + 2 * slot;
+    }
+}
@@ -3,34 +3,106 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.io.OutputStreamWriter;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Lox {
 
-    private static final Interpreter interpreter = new Interpreter();
+    private static Engine engine = new Interpreter();
     private static boolean runPrompt = false;
+    private static boolean profile = false;
+    private static boolean dumpAst = false;
+    private static boolean lazyParse = false;
+    private static boolean parallelParse = false;
+    private static final Optimizer optimizer = Optimizer.standard();
+    private static AstCache cache = null;
+    private static Output.Flush flush = null; // by default per line at the prompt, by size for scripts
+    private static boolean asyncPrint = false;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+        List<String> scripts = new ArrayList<>();
+        for (String arg : args) {
+            if      (arg.equals("--engine=tree"))    { engine = new Interpreter(); }
+            else if (arg.equals("--engine=closure")) { engine = new ClosureEngine(); }
+            else if (arg.equals("--engine=vm"))      { engine = new VM(); }
+            else if (arg.equals("--engine=stack"))   { engine = new StackInterpreter(); }
+            else if (arg.equals("--engine=flat"))    { engine = new FlatInterpreter(); }
+            else if (arg.startsWith("--max-frames=")) { StackInterpreter.maxFrames = frameBudget(arg); }
+            else if (arg.equals("--no-jit"))         { Jit.enabled = false; }
+            else if (arg.equals("--no-inline"))      { Inliner.enabled = false; }
+            else if (arg.equals("--profile"))        { profile = true; }
+            else if (arg.equals("--dump-ast"))       { dumpAst = true; }
+            else if (arg.equals("--lazy-parse"))     { lazyParse = true; }
+            else if (arg.equals("--parallel-parse")) { parallelParse = true; }
+            else if (arg.startsWith("--cache-dir=")) { cache = new AstCache(Paths.get(arg.substring("--cache-dir=".length()))); }
+            else if (arg.equals("--flush=line"))     { flush = Output.Flush.LINE; }
+            else if (arg.equals("--flush=size"))     { flush = Output.Flush.SIZE; }
+            else if (arg.equals("--flush=exit"))     { flush = Output.Flush.EXIT; }
+            else if (arg.equals("--async-print"))    { asyncPrint = true; }
+            else if (arg.startsWith("--"))           { usage(); }
+            else                                     { scripts.add(arg); }
+        }
+
+        if (scripts.size() > 1) { usage(); }
+        // the vm and closure engines compile every body up front and cache entries hold whole trees,
+        // so a lazy parse would only scan each body twice
+        if (lazyParse && (engine instanceof VM || engine instanceof ClosureEngine || null != cache)) {
+            System.out.println("--lazy-parse needs --engine=tree, stack or flat and no --cache-dir");
             System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
-        } else {
-            runPrompt();
         }
+        setOutput(scripts.isEmpty() ? Output.Flush.LINE : Output.Flush.SIZE);
+        try {
+            if   (scripts.size() == 1) { runFile(scripts.get(0)); }
+            else                       { runPrompt(); }
+        } finally {
+            Output.flush();
+        }
+    }
+
+    private static void setOutput(Output.Flush byDefault) {
+        Output.Sink sink = new Output.WriterSink(new OutputStreamWriter(System.out), null == flush ? byDefault : flush, 1 << 16);
+        if (asyncPrint) { sink = new Output.AsyncSink(sink, 1 << 14); }
+        Output.setShared(sink);
+    }
+
+    private static void usage() {
+        System.out.println("Usage: jlox [--engine=tree|closure|vm|stack|flat] [--max-frames=N] [--no-jit] [--no-inline] [--profile] [--dump-ast] [--lazy-parse] [--parallel-parse] [--cache-dir=DIR] [--flush=line|size|exit] [--async-print] [script]");
+        System.exit(64);
+    }
+
+    // call depth limit of --engine=stack
+    private static int frameBudget(String arg) {
+        try {
+            int frames = Integer.parseInt(arg.substring("--max-frames=".length()));
+            if (frames > 0) { return frames; }
+        } catch (NumberFormatException ignored) { }
+        usage();
+        return 0;
     }
 
     public static void runFile(String path) throws IOException {
         runPrompt = false;
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        Source source = Source.map(Paths.get(path));
+        if (null == cache) {
+            run(source);
+        } else {
+            byte[] hash = AstCache.hash(source);
+            List<Stmt> statements = cache.load(hash);
+            if (null == statements) {
+                // entries hold whole trees, so bodies are parsed right away
+                statements = compile(source, false);
+                if (null != statements) { cache.store(hash, statements); }
+            }
+            if (null != statements) { execute(statements); }
+        }
 
-        if (ErrorReporter.hadError())        { System.exit(65); }
-        if (ErrorReporter.hadRuntimeError()) { System.exit(70); }
+        // reported the way the prompt does, after what the script printed
+        int status = ErrorReporter.hadError() ? 65 : ErrorReporter.hadRuntimeError() ? 70 : 0;
+        ErrorReporter.report();
+        Output.flush();
+        if (0 != status) { System.exit(status); }
     }
 
     public static void runPrompt() throws IOException {
@@ -43,17 +115,41 @@ public class Lox {
             String line = reader.readLine();
             if (null == line) { break; }
             if (line.isEmpty()) { continue; }
-            run(line);
+            run(Source.of(line));
         }
     }
 
-    public static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
+    public static void run(Source source) {
+        List<Stmt> statements = compile(source, lazyParse);
+        if (null != statements) { execute(statements); }
+    }
+
+    // parsed, resolved and optimized statements, null if there were compile errors
+    private static List<Stmt> compile(Source source, boolean lazy) {
+        Optimizer lazyOptimizer = lazy ? optimizer : null;
+        List<Stmt> statements;
+        if   (parallelParse && !runPrompt) { statements = ParallelParser.parse(source, lazyOptimizer); }
+        else                               { statements = new Parser(new Scanner(source)).lazyBodies(lazyOptimizer).parse(); }
+        if (ErrorReporter.hadError()) { return null; }
+
+        new Resolver().resolve(statements);
+        if (ErrorReporter.hadError()) { return null; }
+
+        return optimizer.run(statements);
+    }
+
+    private static void execute(List<Stmt> statements) {
+        if (dumpAst) {
+            AstPrinter printer = new AstPrinter();
+            for (Stmt statement : statements) {
+                System.err.println(printer.printStmt(statement));
+            }
+        }
+        engine.interpret(statements);
 
-        List<Stmt> statements = new Parser(tokens).parse();
-        if (ErrorReporter.hadError()) { return; }
-        interpreter.interpret(statements);
+        if (profile && engine instanceof Interpreter interpreter) {
+            System.err.println(interpreter.feedback);
+        }
     }
 
     public static boolean isRunPrompt() { return runPrompt; }
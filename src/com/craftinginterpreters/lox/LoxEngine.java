@@ -0,0 +1,162 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/*
+Runs many scripts at once in one JVM.
+
+compile() turns a source into a Script: scanned, parsed, resolved, optimized
+and flattened into a FlatAst that is never written to again, so one Script can
+be run by any number of Contexts on any threads at the same time. A Context has
+globals of its own and runs one script at a time on a FlatInterpreter of its own.
+
+execute() runs a Script the way a service runs a rule against different values:
+the globals are reset to the natives plus the given inputs before every run, so
+nothing a run defines is seen by the next one. Nothing is scanned or parsed then,
+a run costs what its statements do plus one map entry per input.
+
+Errors of a compile or a run are bound to the thread doing it in ErrorReporter,
+so they never mix with those of other scripts, and are thrown as a LoxException
+holding the messages the command line would print.
+
+submit() runs a Script on the engine's Executor. The default starts a thread
+per script, an Executor of virtual threads can be given where the JDK has them.
+Scripts share nothing but the shared Sink of Output when their Context has no
+Sink of its own, so independent scripts scale with the threads the Executor has.
+*/
+
+public class LoxEngine {
+    // the messages of the errors of a compile or a run, runtime error first
+    public static class LoxException extends Exception {
+        private final List<String> errors;
+
+        LoxException(List<String> errors) {
+            super(String.join("\n", errors));
+            this.errors = List.copyOf(errors);
+        }
+
+        public List<String> errors() {
+            return errors;
+        }
+    }
+
+    // a compiled script, safe to run from any thread
+    public static class Script {
+        final FlatAst ast;
+        final int statements;
+
+        private Script(FlatAst ast, int statements) {
+            this.ast = ast;
+            this.statements = statements;
+        }
+    }
+
+    // globals of their own, scripts run in it one at a time
+    public class Context {
+        private final FlatInterpreter interpreter = new FlatInterpreter();
+        private Output.Sink output = null; // the shared one of Output for null
+
+        private Context() {}
+
+        // where print goes from the next run on, it is flushed at the end of every run
+        public synchronized void setOutput(Output.Sink output) {
+            this.output = output;
+        }
+
+        public synchronized void run(Script script) throws LoxException {
+            ErrorReporter.Errors errors = new ErrorReporter.Errors();
+            ErrorReporter.Errors previous = ErrorReporter.bind(errors);
+            Output.Sink previousOutput = Output.bind(output);
+            try {
+                interpreter.run(script.ast, script.statements);
+            } catch (RuntimeError error) {
+                ErrorReporter.error(error);
+            } finally {
+                Output.flush();
+                Output.restore(previousOutput);
+                ErrorReporter.restore(previous);
+            }
+            if (!errors.messages().isEmpty()) { throw new LoxException(errors.messages()); }
+        }
+
+        // runs script on fresh globals holding inputs, numbers are converted to doubles
+        public synchronized void execute(Script script, Map<String, ?> inputs) throws LoxException {
+            interpreter.globals.reset();
+            for (Map.Entry<String, ?> input : inputs.entrySet()) {
+                interpreter.globals.set(input.getKey(), value(input.getKey(), input.getValue()));
+            }
+            run(script);
+        }
+
+        // runs script on the engine's Executor, completes exceptionally with a LoxException
+        public CompletableFuture<Void> submit(Script script) {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            executor.execute(() -> {
+                try {
+                    run(script);
+                    result.complete(null);
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+            return result;
+        }
+    }
+
+    private final Executor executor;
+    private final Optimizer optimizer = Optimizer.standard();
+
+    public LoxEngine() {
+        this(command -> new Thread(command).start());
+    }
+
+    public LoxEngine(Executor executor) {
+        this.executor = executor;
+    }
+
+    public Script compile(String source) throws LoxException {
+        ErrorReporter.Errors errors = new ErrorReporter.Errors();
+        ErrorReporter.Errors previous = ErrorReporter.bind(errors);
+        try {
+            List<Stmt> statements = ParallelParser.parse(Source.of(source), null);
+            if (ErrorReporter.hadError()) { throw new LoxException(errors.messages()); }
+
+            new Resolver().resolve(statements);
+            if (ErrorReporter.hadError()) { throw new LoxException(errors.messages()); }
+
+            FlatAst ast = new FlatAst();
+            int list = ast.add(optimizer.run(statements));
+            return new Script(ast, list);
+        } finally {
+            ErrorReporter.restore(previous);
+        }
+    }
+
+    // a Lox value for value, which may be any of the values Lox has or a Number
+    private static Object value(String name, Object value) {
+        if (null == value || value instanceof Double || value instanceof String ||
+                value instanceof Boolean || value instanceof LoxCallable) {
+            return value;
+        } else if (value instanceof Number) {
+            return ((Number)value).doubleValue();
+        } else {
+            throw new IllegalArgumentException("Not a Lox value for " + name + ": " + value.getClass().getName());
+        }
+    }
+
+    public Context newContext() {
+        return new Context();
+    }
+
+    // compiles and runs source in a context of its own on the Executor
+    public CompletableFuture<Void> submit(String source) {
+        try {
+            return newContext().submit(compile(source));
+        } catch (LoxException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
@@ -3,25 +3,96 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 public class LoxFunction implements LoxCallable {
-    private final Stmt.Function declaration;
+    final Stmt.Function declaration;
+    private final ClosureCompiler.StmtNode[] body; // null when the body is run by the tree walking interpreter
+
+    // tiering state, only used when the body is run by the tree walking interpreter
+    private int calls = 0;
+    private int deopts = 0;
+    private Jit.Kernel kernel = null;
 
     LoxFunction(Stmt.Function declaration) {
+        this(declaration, null);
+    }
+
+    LoxFunction(Stmt.Function declaration, ClosureCompiler.StmtNode[] body) {
         this.declaration = declaration;
+        this.body = body;
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> args) {
-        Environment environment = new Environment(interpreter.globals);
-        for (int i = 0; i < declaration.params.size(); ++i) {
-            environment.define(declaration.params.get(i), args.get(i));
+        if (null == body && tierUp(interpreter)) {
+            Object result = runKernel(args);
+            if (Jit.DEOPT != result) { return result; }
         }
 
+        Environment environment = frame(args);
+        if   (null != body) { return invoke(environment); }
+        else                { return interpreter.call(this, environment); }
+    }
+
+    // Jit.DEOPT when the arguments are not all numbers or the kernel deoptimized, the interpreter then runs the call
+    Object runKernel(List<Object> args) {
+        if (!allNumbers(args)) { return Jit.DEOPT; }
+
         try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Interpreter.ReturnStmt returnStmt) {
-            return returnStmt.value;
+            return kernel.call(args);
+        } catch (Jit.Deopt | StackOverflowError deopt) {
+            // the kernel has no side effects, running the whole call again is safe. Only self tail calls
+            // are jumps in a kernel, deeper tail recursion is left to the interpreter which trampolines it
+            if (Jit.MAX_DEOPTS == ++deopts) { kernel = null; }
+            return Jit.DEOPT;
+        }
+    }
+
+    Environment frame(List<Object> args) {
+        Environment environment = new Environment(null, declaration.frameSize());
+        for (int i = 0; i < args.size(); ++i) {
+            environment.define(i, args.get(i));
+        }
+        return environment;
+    }
+
+    // counts a call run by the interpreter, true once a JIT kernel is ready for it
+    boolean tierUp(Interpreter interpreter) {
+        if (!Jit.enabled) { return false; }
+
+        if (calls < Jit.THRESHOLD && Jit.THRESHOLD == ++calls) { kernel = Jit.compile(this, interpreter.globals); }
+        return null != kernel;
+    }
+
+    // runs the compiled body on a frame already holding the arguments, then every compiled function it tail calls
+    Object invoke(Environment environment) {
+        LoxFunction function = this;
+        for (;;) {
+            try {
+                for (ClosureCompiler.StmtNode node : function.body) {
+                    node.execute(environment);
+                }
+                return null;
+            } catch (ClosureCompiler.ReturnStmt returnStmt) {
+                return returnStmt.value;
+            } catch (ClosureCompiler.TailCall tailCall) {
+                function = tailCall.function;
+                environment = tailCall.frame;
+            } catch (ClosureCompiler.BreakStmt escaped) {
+                throw Operators.error(escaped.keyword, "No loop to catch break statement");
+            } catch (ClosureCompiler.ContinueStmt escaped) {
+                throw Operators.error(escaped.keyword, "No loop to catch continue statement");
+            }
         }
-        return null;
+    }
+
+    private static boolean allNumbers(List<Object> args) {
+        for (Object arg : args) {
+            if (!(arg instanceof Double)) { return false; }
+        }
+        return true;
+    }
+
+    boolean isCompiled() {
+        return null != body;
     }
 
     @Override
@@ -31,6 +102,6 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public String toString() {
-        return "<fn>$" + declaration.name.lexeme;
+        return "<fn>$" + declaration.name.lexeme();
     }
 }
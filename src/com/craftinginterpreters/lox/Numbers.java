@@ -0,0 +1,53 @@
+package com.craftinginterpreters.lox;
+
+/*
+How Lox writes numbers: Double.toString without a trailing ".0".
+
+Double.toString only ends in ".0" for whole numbers under 10^7 in magnitude,
+so those are written as longs here, without making the Double's String first,
+and -0.0 as "-0". Every other number is written by the JDK itself, appendTo()
+puts its digits straight into the builder, toString() makes them a String.
+Lox's output stays exactly what it was on the JDK it runs on: before JDK 19,
+Double.toString is not always the shortest round trip, so a formatter of its own
+that is (Ryu, Schubfach) would print some numbers differently.
+
+Whole numbers in [0, SMALL) have their Strings made once.
+*/
+
+final class Numbers {
+    private static final double PLAIN_LIMIT = 1e7; // Double.toString uses E notation from here on
+    private static final int SMALL = 1 << 10;
+    private static final String[] smallStrings = new String[SMALL];
+
+    static {
+        for (int i = 0; i < SMALL; ++i) {
+            smallStrings[i] = Integer.toString(i);
+        }
+    }
+
+    private Numbers() {}
+
+    static String toString(double number) {
+        if (isPlainWhole(number)) {
+            long whole = (long)number;
+            if      (0 <= whole && whole < SMALL) { return isNegativeZero(number) ? "-0" : smallStrings[(int)whole]; }
+            else                                  { return Long.toString(whole); }
+        }
+        return Double.toString(number);
+    }
+
+    static void appendTo(StringBuilder out, double number) {
+        if      (!isPlainWhole(number))   { out.append(number); }
+        else if (isNegativeZero(number))  { out.append("-0"); }
+        else                              { out.append((long)number); }
+    }
+
+    // false for NaN and the infinities too
+    private static boolean isPlainWhole(double number) {
+        return Math.abs(number) < PLAIN_LIMIT && number == (long)number;
+    }
+
+    private static boolean isNegativeZero(double number) {
+        return 0 == number && Double.doubleToRawLongBits(number) < 0;
+    }
+}
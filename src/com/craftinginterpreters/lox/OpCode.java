@@ -0,0 +1,64 @@
+package com.craftinginterpreters.lox;
+
+/*
+Instruction set of the VM, operands follow the opcode byte in the code array.
+u1 is one unsigned byte, u2 is two bytes in big endian order.
+*/
+
+public final class OpCode {
+    private OpCode() {}
+
+    static final byte CONSTANT      = 0;  // u2 constant index
+    static final byte CONSTANT_LONG = 1;  // u3 constant index, for those past 0xffff
+    static final byte NIL           = 2;
+    static final byte TRUE          = 3;
+    static final byte FALSE         = 4;
+    static final byte POP           = 5;
+    static final byte DUP           = 6;
+
+    static final byte GET_LOCAL     = 7;  // u1 slot
+    static final byte SET_LOCAL     = 8;  // u1 slot, keeps the value on the stack
+    static final byte DEFINE_LOCAL  = 9;  // u1 slot, pops the value
+    // the name is the token of the instruction
+    static final byte GET_GLOBAL    = 10;
+    static final byte SET_GLOBAL    = 11; // keeps the value on the stack
+    static final byte DEFINE_GLOBAL = 12; // pops the value
+
+    static final byte ADD           = 13;
+    static final byte SUBTRACT      = 14;
+    static final byte MULTIPLY      = 15;
+    static final byte DIVIDE        = 16;
+    static final byte NEGATE        = 17;
+    static final byte NOT           = 18;
+    static final byte TRUTHY        = 19;
+
+    static final byte EQUAL         = 20;
+    static final byte NOT_EQUAL     = 21;
+    static final byte GREATER       = 22;
+    static final byte GREATER_EQUAL = 23;
+    static final byte LESS          = 24;
+    static final byte LESS_EQUAL    = 25;
+    static final byte SELECT        = 26; // condition, first, second -> first or second
+
+    static final byte JUMP          = 27; // u2 forward offset
+    static final byte JUMP_IF_FALSE = 28; // u2 forward offset, pops the condition
+    static final byte JUMP_IF_TRUE  = 29; // u2 forward offset, pops the condition
+    static final byte LOOP          = 30; // u2 backward offset
+
+    // comparison fused with JUMP_IF_FALSE for loop and if conditions, u2 forward offset
+    static final byte JUMP_IF_NOT_GREATER       = 31;
+    static final byte JUMP_IF_NOT_GREATER_EQUAL = 32;
+    static final byte JUMP_IF_NOT_LESS          = 33;
+    static final byte JUMP_IF_NOT_LESS_EQUAL    = 34;
+
+    static final byte CALL          = 35; // u1 argument count
+    static final byte TAIL_CALL     = 36; // u1 argument count, a compiled callee replaces the current frame
+    static final byte RETURN        = 37;
+    static final byte PRINT         = 38;
+    // u1 MISPLACED_* kind, a break, continue or return with nowhere to go, raises the tree engine's error when run
+    static final byte MISPLACED     = 39;
+
+    static final int MISPLACED_BREAK    = 0;
+    static final int MISPLACED_CONTINUE = 1;
+    static final int MISPLACED_RETURN   = 2;
+}
@@ -0,0 +1,80 @@
+package com.craftinginterpreters.lox;
+
+// Value semantics shared by every execution engine, errors are reported at the given token
+public final class Operators {
+    private Operators() {}
+
+    static boolean isTruthy(Object obj, Token token) {
+        if      (null == obj)              { return false; }
+        else if (obj instanceof Boolean b) { return b; }
+        else if (obj instanceof Double d)  { return d != 0.0; }
+        else if (obj instanceof String s)  { return !s.isEmpty(); }
+        else if (obj instanceof Rope r)    { return !r.isEmpty(); }
+        else                               { throw error(token, "Unknown Truthy convention"); }
+    }
+
+    // a value without truthiness is reported at the last token of condition
+    static boolean isTruthy(Object obj, Expr condition) {
+        boolean known = null == obj || obj instanceof Boolean || obj instanceof Double || isText(obj);
+        return isTruthy(obj, known ? null : Expr.lastToken(condition));
+    }
+
+    static boolean isEqual(Object left, Object right) {
+        if      (null == left && null == right) { return true; }
+        else if (null == left)                  { return false; }
+        else if (right instanceof Rope)         { return right.equals(left); }
+        else                                    { return left.equals(right); }
+    }
+
+    static Object plus(Object left, Object right, Token token) {
+        if      (isText(left))            { return Rope.plus(left, right); }
+        else if (right instanceof Double) { return number(left, token) + (double)right; }
+        else { throw error(token, "Cannot do plus on lhs number and rhs string"); }
+    }
+
+    static Object multiply(Object left, Object right, Token token) {
+        if (right instanceof Double r) {
+            if (isText(left)) {
+                int rep = (int)(double)r;
+                return Rope.repeat(left, rep);
+            } else {
+                return number(left, token) * r;
+            }
+        } else {
+            throw error(token, "Rhs of multiply must be a number");
+        }
+    }
+
+    static Object divide(Object left, Object right, Token token) {
+        double a = number(left, token);
+        double b = number(right, token);
+
+        if (b == 0) { throw error(token, "Cannot divide by zero"); }
+        else        { return a / b; }
+    }
+
+    // a String or a Rope
+    static boolean isText(Object obj) {
+        return obj instanceof String || obj instanceof Rope;
+    }
+
+    // obj with a Rope made into a String, for values kept in the AST
+    static Object flatten(Object obj) {
+        return obj instanceof Rope ? obj.toString() : obj;
+    }
+
+    static double number(Object obj, Token token) {
+        if   (obj instanceof Double d) { return d; }
+        else                           { throw error(token, "Operand must be a number"); }
+    }
+
+    static String stringify(Object obj) {
+        if (obj == null) return "nil";
+        else if (obj instanceof Double d) return Numbers.toString(d);
+        return obj.toString();
+    }
+
+    static RuntimeError error(Token token, String message) {
+        return new RuntimeError(token, "Interpreter", message);
+    }
+}
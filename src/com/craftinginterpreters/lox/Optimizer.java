@@ -0,0 +1,33 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+Pipeline of AstPasses run between Resolver and the engine.
+
+Passes run after resolving so that compile errors are reported for the source as
+written, code removed as dead still gets checked. They keep the depth, slot and
+frame size the Resolver filled in, so nothing has to be resolved again.
+*/
+
+public class Optimizer {
+    private final List<AstPass> passes = new ArrayList<>();
+
+    static Optimizer standard() {
+        return new Optimizer().add(new ConstantFolder())
+                              .add(new DeadBranchEliminator());
+    }
+
+    Optimizer add(AstPass pass) {
+        passes.add(pass);
+        return this;
+    }
+
+    List<Stmt> run(List<Stmt> statements) {
+        for (AstPass pass : passes) {
+            statements = pass.run(statements);
+        }
+        return statements;
+    }
+}
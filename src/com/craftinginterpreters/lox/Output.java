@@ -0,0 +1,280 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/*
+Where print writes its lines.
+
+Every engine prints through print() here, which goes to the Sink bound to the
+current thread (see LoxEngine) or to the shared one the command line sets up.
+Like ErrorReporter, so scripts on other threads never write into each other's.
+
+A WriterSink buffers the lines for a Writer and pushes them out after every
+line (LINE), whenever SIZE chars have been written since the last flush (SIZE),
+or only when flush() is called (EXIT), the command line calls it before it
+exits. A Capture keeps the text in memory. An AsyncSink hands the lines to a
+thread of its own through a bounded queue, print only waits when the queue is
+full, and flush() waits until that thread has written everything before it.
+When writing fails that thread keeps draining the queue, so nothing waits on
+it forever, and the next print or flush throws the failure.
+*/
+
+public class Output {
+    public interface Sink {
+        void println(String line);
+
+        // a Lox number on a line of its own
+        default void println(double number) { println(Numbers.toString(number)); }
+
+        // everything printed so far reaches its destination
+        void flush();
+
+        default void close() { flush(); }
+    }
+
+    public enum Flush { LINE, SIZE, EXIT }
+
+    public static class WriterSink implements Sink {
+        private static final String NEWLINE = System.lineSeparator();
+
+        private final Writer out;
+        private final Flush flush;
+        private final int size;
+        private int pending = 0; // chars written since the last flush
+        // numbers are formatted here, then copied to the Writer
+        private final StringBuilder number = new StringBuilder(32);
+        private char[] chars = new char[32];
+
+        public WriterSink(Writer out, Flush flush, int size) {
+            this.out = new BufferedWriter(out, size);
+            this.flush = flush;
+            this.size = size;
+        }
+
+        @Override
+        public synchronized void println(String line) {
+            try {
+                out.write(line);
+                written(line.length());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public synchronized void println(double value) {
+            number.setLength(0);
+            Numbers.appendTo(number, value);
+            int length = number.length();
+            if (length > chars.length) { chars = new char[length]; }
+            number.getChars(0, length, chars, 0);
+            try {
+                out.write(chars, 0, length);
+                written(length);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // ends the line of length chars just written
+        private void written(int length) throws IOException {
+            out.write(NEWLINE);
+            switch (flush) {
+                case LINE -> out.flush();
+                case SIZE -> {
+                    pending += length + NEWLINE.length();
+                    if (pending >= size) { out.flush(); pending = 0; }
+                }
+                case EXIT -> { }
+            }
+        }
+
+        @Override
+        public synchronized void flush() {
+            try {
+                out.flush();
+                pending = 0;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // keeps what is printed, for embedding
+    public static class Capture implements Sink {
+        private final StringBuilder text = new StringBuilder();
+
+        @Override
+        public synchronized void println(String line) {
+            text.append(line).append('\n');
+        }
+
+        @Override
+        public synchronized void println(double number) {
+            Numbers.appendTo(text, number);
+            text.append('\n');
+        }
+
+        @Override
+        public void flush() { }
+
+        public synchronized String text() {
+            return text.toString();
+        }
+
+        public synchronized void clear() {
+            text.setLength(0);
+        }
+    }
+
+    public static class AsyncSink implements Sink {
+        private static final int BATCH = 1024;
+        private static final Object STOP = new Object();
+
+        private final Sink target;
+        // lines, numbers, the latches of flush() calls and STOP, in order
+        private final BlockingQueue<Object> queue;
+        private final Thread writer;
+        // what the target threw, from then on the queue is only drained and printing fails
+        private volatile Throwable failure = null;
+
+        public AsyncSink(Sink target, int capacity) {
+            this.target = target;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.writer = new Thread(this::write, "lox-print");
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        @Override
+        public void println(String line) {
+            put(line);
+        }
+
+        @Override
+        public void println(double number) {
+            put(number);
+        }
+
+        @Override
+        public void flush() {
+            CountDownLatch written = new CountDownLatch(1);
+            put(written);
+            await(written);
+            checkFailure();
+        }
+
+        @Override
+        public void close() {
+            try {
+                flush();
+            } finally {
+                enqueue(STOP);
+            }
+        }
+
+        private void write() {
+            List<Object> batch = new ArrayList<>(BATCH);
+            try {
+                for (;;) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, BATCH - 1);
+                    for (Object item : batch) {
+                        if (STOP == item) { return; }
+                        if (null == failure) { deliver(item); }
+                        if (item instanceof CountDownLatch written) { written.countDown(); }
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void deliver(Object item) {
+            try {
+                if      (item instanceof String line)    { target.println(line); }
+                else if (item instanceof Double number)  { target.println((double)number); }
+                else if (item instanceof CountDownLatch) { target.flush(); }
+            } catch (Throwable e) {
+                failure = e;
+            }
+        }
+
+        private void checkFailure() {
+            if (null != failure) { throw new IllegalStateException("Printing failed", failure); }
+        }
+
+        private void put(Object item) {
+            checkFailure();
+            enqueue(item);
+        }
+
+        private void enqueue(Object item) {
+            try {
+                queue.put(item);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while printing", e);
+            }
+        }
+
+        private static void await(CountDownLatch latch) {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while flushing", e);
+            }
+        }
+    }
+
+    private static volatile Sink shared = new WriterSink(new OutputStreamWriter(System.out), Flush.LINE, 1 << 13);
+    private static final ThreadLocal<Sink> bound = new ThreadLocal<>();
+
+    static void println(String line) {
+        sink().println(line);
+    }
+
+    // what print does with value
+    static void print(Object value) {
+        if   (value instanceof Double number) { sink().println((double)number); }
+        else                                  { sink().println(Operators.stringify(value)); }
+    }
+
+    static void flush() {
+        sink().flush();
+    }
+
+    // the sink of threads that have none bound, the one before is flushed
+    static void setShared(Sink sink) {
+        shared.flush();
+        shared = sink;
+    }
+
+    // what this thread prints goes to sink until restore(), returns the Sink bound before, for restore()
+    static Sink bind(Sink sink) {
+        Sink previous = bound.get();
+        bound.set(sink);
+        return previous;
+    }
+
+    static void restore(Sink previous) {
+        if   (null == previous) { bound.remove(); }
+        else                    { bound.set(previous); }
+    }
+
+    private static Sink sink() {
+        Sink sink = bound.get();
+        return null == sink ? shared : sink;
+    }
+}
@@ -0,0 +1,126 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static com.craftinginterpreters.lox.TokenType.*;
+
+/*
+Scans and parses a large script in chunks on the common ForkJoinPool.
+
+The chunks are found by scanning the whole source once without parsing it. A
+chunk may end right after a ';' or '}' outside of any braces and parentheses,
+unless an else follows, and the first such point past CHUNK_SIZE bytes ends it.
+Every chunk starts at the line and column the scanner had there, so scanning it
+on its own gives exactly the tokens of the single-threaded run. The statement
+lists of the chunks are concatenated in order.
+
+Workers bind Errors of their own in ErrorReporter instead of reporting them. Error
+recovery may run past the end of a chunk where the single-threaded parser would
+have stopped, so when any chunk has errors the whole source is parsed again on
+the calling thread and the errors are reported in the same order as before.
+*/
+
+public class ParallelParser {
+    private static final int CHUNK_SIZE = 1 << 18;
+    // smaller sources are parsed on the calling thread
+    private static final int MIN_SIZE = 1 << 20;
+
+    private static class Chunk {
+        final int start;
+        int end;
+        final int line;
+        final int column;
+
+        Chunk(int start, int line, int column) {
+            this.start = start;
+            this.line = line;
+            this.column = column;
+        }
+    }
+
+    static List<Stmt> parse(Source source, Optimizer lazyOptimizer) {
+        if (source.length() >= MIN_SIZE && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            List<Stmt> statements = parseChunks(source, lazyOptimizer);
+            if (null != statements) { return statements; }
+        }
+        return new Parser(new Scanner(source)).lazyBodies(lazyOptimizer).parse();
+    }
+
+    // null when there were errors, nothing has been reported then
+    private static List<Stmt> parseChunks(Source source, Optimizer lazyOptimizer) {
+        List<Chunk> chunks = split(source);
+        if (null == chunks) { return null; }
+
+        List<Callable<List<Stmt>>> tasks = new ArrayList<>(chunks.size());
+        for (Chunk chunk : chunks) {
+            tasks.add(() -> parse(source.view(), chunk, lazyOptimizer));
+        }
+
+        List<Stmt> statements = new ArrayList<>();
+        try {
+            for (Future<List<Stmt>> result : ForkJoinPool.commonPool().invokeAll(tasks)) {
+                List<Stmt> chunk = result.get();
+                if (null == chunk) { return null; }
+                statements.addAll(chunk);
+            }
+        } catch (ExecutionException e) {
+            // a worker thread has less stack than the main one, a deep nesting gets another try there
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return statements;
+    }
+
+    private static List<Stmt> parse(Source source, Chunk chunk, Optimizer lazyOptimizer) {
+        ErrorReporter.Errors previous = ErrorReporter.bind(new ErrorReporter.Errors());
+        try {
+            Scanner scanner = new Scanner(source, chunk.start, chunk.end, chunk.line, chunk.column);
+            List<Stmt> statements = new Parser(scanner).lazyBodies(lazyOptimizer).parse();
+            return ErrorReporter.hadError() ? null : statements;
+        } finally {
+            ErrorReporter.restore(previous);
+        }
+    }
+
+    // the chunks of source, null when scanning it has errors
+    private static List<Chunk> split(Source source) {
+        ErrorReporter.Errors previous = ErrorReporter.bind(new ErrorReporter.Errors());
+        try {
+            Scanner scanner = new Scanner(source);
+            List<Chunk> chunks = new ArrayList<>();
+            Chunk chunk = new Chunk(0, 1, 0);
+            Chunk boundary = null; // after the last token, unless an else follows
+            int depth = 0;
+            for (Token token = scanner.next(); EOF != token.type; token = scanner.next()) {
+                if (null != boundary && ELSE != token.type) {
+                    chunk.end = boundary.start;
+                    chunks.add(chunk);
+                    chunk = boundary;
+                }
+                boundary = null;
+
+                switch (token.type) {
+                    case LEFT_BRACE, LEFT_PAREN -> depth++;
+                    case RIGHT_BRACE, RIGHT_PAREN -> depth--;
+                    default -> { }
+                }
+                if (0 == depth && (SEMICOLON == token.type || RIGHT_BRACE == token.type) &&
+                        scanner.position() - chunk.start >= CHUNK_SIZE) {
+                    boundary = new Chunk(scanner.position(), scanner.line(), scanner.column());
+                }
+            }
+            chunk.end = source.length();
+            chunks.add(chunk);
+            return ErrorReporter.hadError() ? null : chunks;
+        } finally {
+            ErrorReporter.restore(previous);
+        }
+    }
+}
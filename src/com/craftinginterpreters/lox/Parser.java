@@ -33,22 +33,93 @@ logical             = equality ("or" | "and" equality)*
 equality            = comparison ("==" | "!=") comparison
 comparison          = term ("<" | ">" | "<=" ">=") term
 term                = factor (("+" | "-") factor)*
-factor              = unary (("*" | "/") unary)*
+factor              = unary (("*" | "/") factor)?
 unary               = ("!" | "-") unary | call
 call                = primary ( "(" arguments ")" )*
 primary             = "true" | "false" | "nil" | NUMBER | STRING | IDENTIFIER | group
 arguments           = expression ("," expression)*
 group               = "(" expression ")"
+
+Expressions are parsed by precedence climbing rather than one method per rule:
+expression(precedence) parses a prefix, then takes infix operators for as long
+as PRECEDENCE says they bind at least that tight. Operands of left associative
+operators must bind tighter than the operator, "*" and "/" take their own level
+(factor is right associative), and only an assignment may follow a ternary.
+
+With lazyBodies() a function body is only brace matched, its tokens are scanned
+(so scanner errors still come first) but not parsed. Function.body() parses,
+resolves and optimizes it the first time the function is called. The body is
+scanned again from its own range of the source, so errors in it are reported
+with the same positions and never run past its closing brace, and a body with
+errors makes that call fail with a RuntimeError, before any of it runs.
 */
 
 public class Parser {
     private static class ParseException extends RuntimeException {}
 
-    private final List<Token> tokens;
-    private int current = 0;
+    // the last tokens pulled from the scanner, enough for previous() after primary() stepped back
+    private static final int WINDOW = 4;
+
+    private final Scanner scanner;
+    private final Token[] window = new Token[WINDOW];
+    private int current = 0; // position of peek() in the token stream
+    private int read = 0;    // tokens pulled so far
+    private Optimizer lazyOptimizer = null; // set when function bodies are parsed on first use
+
+    // how tight the infix operators bind, by TokenType.ordinal(), tokens that are none have 0
+    private static final int ASSIGNMENT = 1, TERNARY = 2, LOGICAL = 3, EQUALITY = 4, COMPARISON = 5,
+                             TERM = 6, FACTOR = 7, UNARY = 8, CALL = 9;
+    private static final byte[] PRECEDENCE = new byte[TokenType.values().length];
+
+    static {
+        PRECEDENCE[EQUAL.ordinal()] = ASSIGNMENT;
+        PRECEDENCE[QUESTION.ordinal()] = TERNARY;
+        PRECEDENCE[AND.ordinal()] = PRECEDENCE[OR.ordinal()] = LOGICAL;
+        PRECEDENCE[BANG_EQUAL.ordinal()] = PRECEDENCE[EQUAL_EQUAL.ordinal()] = EQUALITY;
+        PRECEDENCE[GREATER.ordinal()] = PRECEDENCE[GREATER_EQUAL.ordinal()] = COMPARISON;
+        PRECEDENCE[LESS.ordinal()] = PRECEDENCE[LESS_EQUAL.ordinal()] = COMPARISON;
+        PRECEDENCE[PLUS.ordinal()] = PRECEDENCE[MINUS.ordinal()] = TERM;
+        PRECEDENCE[STAR.ordinal()] = PRECEDENCE[SLASH.ordinal()] = FACTOR;
+        PRECEDENCE[LEFT_PAREN.ordinal()] = CALL;
+    }
+
+    Parser(Scanner scanner) {
+        this.scanner = scanner;
+    }
+
+    // range of the source holding a function body that is parsed on first use
+    static class LazyBody {
+        private final Source source;
+        private final int start;
+        private final int end;
+        private final int line;
+        private final int column;
+        private final Optimizer optimizer;
+
+        LazyBody(Source source, Token open, Token close, Optimizer optimizer) {
+            this.source = source;
+            this.start = open.start + open.length;
+            this.end = close.start + close.length;
+            this.line = open.line;
+            this.column = open.column;
+            this.optimizer = optimizer;
+        }
 
-    Parser(List<Token> tokens) {
-        this.tokens = tokens;
+        List<Stmt> parse(Stmt.Function function) {
+            Parser parser = new Parser(new Scanner(source, start, end, line, column)).lazyBodies(optimizer);
+            List<Stmt> body = parser.functionBody();
+            if (!ErrorReporter.hadError()) { new Resolver().resolveFunction(function, body); }
+            if (ErrorReporter.hadError()) {
+                throw new RuntimeError(function.name, "Parser", "Function " + function.name.lexeme() + " has compile errors");
+            }
+            return optimizer.run(body);
+        }
+    }
+
+    // function bodies are left to LazyBody, optimizer runs on them once they are parsed, null parses them right away
+    Parser lazyBodies(Optimizer optimizer) {
+        lazyOptimizer = optimizer;
+        return this;
     }
 
     List<Stmt> parse() {
@@ -110,10 +181,26 @@ public class Parser {
             } while (match(COMMA));
         }
         consume(RIGHT_PAREN, "Expect ) after " + kind + " parameters");
-        consume(LEFT_BRACE, "Expect { after " + kind + " parameters");
-        List<Stmt> body = blockStatement().stmts;
+        Token open = consume(LEFT_BRACE, "Expect { after " + kind + " parameters");
+        if (null == lazyOptimizer) { return new Stmt.Function(name, params, blockStatement().stmts); }
+
+        int depth = 1;
+        while (0 != depth && !isAtEnd()) {
+            TokenType type = advance().type;
+            if      (LEFT_BRACE == type)  { depth++; }
+            else if (RIGHT_BRACE == type) { depth--; }
+        }
+        if (0 != depth) { throw error(peek(), "Need '}' to close a block"); }
+        return new Stmt.Function(name, params, new LazyBody(scanner.source, open, previous(), lazyOptimizer));
+    }
 
-        return new Stmt.Function(name, params, body);
+    // the statements of a lazy body, up to and including its closing brace
+    private List<Stmt> functionBody() {
+        try {
+            return blockStatement().stmts;
+        } catch (ParseException error) {
+            return List.of();
+        }
     }
 
     private Stmt statement() {
@@ -190,13 +277,15 @@ public class Parser {
     }
 
     private Stmt.Break breakStatement() {
+        Token keyword = previous();
         consume(SEMICOLON, "Expect ; after break");
-        return new Stmt.Break();
+        return new Stmt.Break(keyword);
     }
 
     private Stmt.Continue continueStatement() {
+        Token keyword = previous();
         consume(SEMICOLON, "Expect ; after continue");
-        return new Stmt.Continue();
+        return new Stmt.Continue(keyword);
     }
 
     private Stmt.Return returnStatement() {
@@ -206,119 +295,60 @@ public class Parser {
     }
 
     private Expr expression() {
-        return assignment();
-    }
-
-    private Expr assignment() {
-        Expr expr = ternary();
-
-        if (match(EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, value);
+        return expression(ASSIGNMENT);
+    }
+
+    // an expression whose operators all bind at least as tight as precedence
+    private Expr expression(int precedence) {
+        Expr expr = prefix();
+        int highest = CALL; // only an assignment may follow a ternary, nothing follows an assignment
+        for (;;) {
+            int level = PRECEDENCE[peek().type.ordinal()];
+            if (level < precedence || level > highest) { return expr; }
+
+            Token operator = advance();
+            switch (level) {
+                case ASSIGNMENT -> { return assignment(expr, operator); }
+                case TERNARY -> {
+                    expr = ternary(expr);
+                    highest = ASSIGNMENT;
+                }
+                case LOGICAL -> expr = new Expr.Logical(expr, operator, expression(EQUALITY));
+                case FACTOR -> expr = new Expr.Binary(expr, operator, expression(FACTOR)); // right associative
+                case CALL -> expr = finisCall(expr);
+                default -> expr = new Expr.Binary(expr, operator, expression(level + 1));
             }
-
-            // Purposely not throw to not activate panic mode
-            //noinspection ThrowableNotThrown
-            error(equals, "Invalid assign target");
         }
-
-        return expr;
     }
 
-    private Expr ternary() {
-        Expr expr = logical();
+    private Expr assignment(Expr target, Token equals) {
+        Expr value = expression(ASSIGNMENT);
 
-        if (match(QUESTION)) {
-            Expr first = logical();
-            consume(COLON, "Must have colon(':') in ternary expression");
-            Expr second = logical();
-            expr = new Expr.Ternary(expr, first, second);
+        if (target instanceof Expr.Variable) {
+            Token name = ((Expr.Variable)target).name;
+            return new Expr.Assign(name, value);
         }
 
-        return expr;
+        // Purposely not throw to not activate panic mode
+        //noinspection ThrowableNotThrown
+        error(equals, "Invalid assign target");
+        return target;
     }
 
-    private Expr logical() {
-        Expr expr = equality();
-
-        while (match(AND, OR)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
+    private Expr ternary(Expr condition) {
+        Expr first = expression(LOGICAL);
+        consume(COLON, "Must have colon(':') in ternary expression");
+        Expr second = expression(LOGICAL);
+        return new Expr.Ternary(condition, first, second);
     }
 
-    private Expr equality() {
-        Expr expr = comparison();
-
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
+    private Expr prefix() {
+        TokenType type = peek().type;
+        if (BANG == type || MINUS == type) {
+            Token operator = advance();
+            return new Expr.Unary(operator, expression(UNARY));
         }
-
-        return expr;
-    }
-
-    private Expr comparison() {
-        Expr expr = term();
-
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr term() {
-        Expr expr = factor();
-
-        while (match(PLUS, MINUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr factor() {
-        Expr expr = unary();
-
-        while (match(STAR, SLASH)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr unary() {
-        if (match(BANG, MINUS)) {
-            Token operator = previous();
-            Expr expr = unary();
-            return new Expr.Unary(operator, expr);
-        } else {
-            return call();
-        }
-    }
-
-    private Expr call() {
-        Expr expr = primary();
-        while (match(LEFT_PAREN)) {
-            expr = finisCall(expr);
-        }
-
-        return expr;
+        return primary();
     }
 
     private Expr finisCall(Expr expr) {
@@ -366,11 +396,12 @@ public class Parser {
     }
 
     private Token peek() {
-        return tokens.get(current);
+        if (read == current) { window[read++ % WINDOW] = scanner.next(); }
+        return window[current % WINDOW];
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return window[(current - 1) % WINDOW];
     }
 
     private boolean check(TokenType type) {
@@ -0,0 +1,247 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+Static pass run between Parser and Interpreter.
+
+Every local variable gets a (depth, slot) pair, depth counts the frames to walk up
+and slot is the index inside that frame. Names that are not found in the scopes of
+the current function are globals and keep depth -1.
+Functions can only see their own locals and globals, so lookup stops at the
+function boundary. Blocks that declare nothing do not get a scope (and no frame at runtime).
+*/
+
+public class Resolver implements Expr.Visitor<Void>,
+                                 Stmt.Visitor<Void> {
+    private final List<Map<String, Integer>> scopes = new ArrayList<>();
+    private int functionBase = 0;
+    private boolean inFunction = false;
+
+    void resolve(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    private void resolve(Stmt statement) {
+        if (null != statement) { statement.accept(this); }
+    }
+
+    private void resolve(Expr expr) {
+        if (null != expr) { expr.accept(this); }
+    }
+
+    @Override
+    public Void visitExprStmt(Stmt.Expression stmt) {
+        resolve(stmt.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        resolve(stmt.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableStmt(Stmt.Variable stmt) {
+        resolve(stmt.initializer);
+        stmt.slot = declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (declaresAny(stmt.stmts)) {
+            beginScope();
+            resolve(stmt.stmts);
+            stmt.frameSize = endScope();
+        } else {
+            resolve(stmt.stmts);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.ifBlock);
+        resolve(stmt.elseBlock);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.block);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        if (stmt.init instanceof Stmt.Variable) {
+            beginScope();
+            resolveFor(stmt);
+            stmt.frameSize = endScope();
+        } else {
+            resolveFor(stmt);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function function) {
+        function.slot = declare(function.name);
+        if (function.isParsed()) { resolveFunction(function, function.body()); }
+        return null;
+    }
+
+    // also used on a lazy body when it is parsed, the function's own name is already declared then
+    void resolveFunction(Stmt.Function function, List<Stmt> body) {
+        int enclosingBase = functionBase;
+        boolean enclosingFunction = inFunction;
+        functionBase = scopes.size();
+        inFunction = true;
+        beginScope();
+        for (Token param : function.params) {
+            declare(param);
+        }
+        resolve(body);
+        function.frameSize = endScope();
+        functionBase = enclosingBase;
+        inFunction = enclosingFunction;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        stmt.inFunction = inFunction;
+        resolve(stmt.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        int scope = lookup(expr.name);
+        if (-1 != scope) {
+            expr.depth = scopes.size() - 1 - scope;
+            expr.slot = scopes.get(scope).get(expr.name.lexeme());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        resolve(expr.condition);
+        resolve(expr.first);
+        resolve(expr.second);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        int scope = lookup(expr.name);
+        if (-1 != scope) {
+            expr.depth = scopes.size() - 1 - scope;
+            expr.slot = scopes.get(scope).get(expr.name.lexeme());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+        for (Expr arg : expr.arguments) {
+            resolve(arg);
+        }
+        return null;
+    }
+
+    private void resolveFor(Stmt.For stmt) {
+        resolve(stmt.init);
+        resolve(stmt.condition);
+        resolve(stmt.block);
+        resolve(stmt.increase);
+    }
+
+    private boolean declaresAny(List<Stmt> stmts) {
+        for (Stmt stmt : stmts) {
+            if (stmt instanceof Stmt.Variable || stmt instanceof Stmt.Function) { return true; }
+        }
+        return false;
+    }
+
+    private void beginScope() {
+        scopes.add(new HashMap<>());
+    }
+
+    private int endScope() {
+        return scopes.remove(scopes.size() - 1).size();
+    }
+
+    private int declare(Token name) {
+        if (scopes.isEmpty()) { return -1; }
+
+        Map<String, Integer> scope = scopes.get(scopes.size() - 1);
+        if (scope.containsKey(name.lexeme())) {
+            ErrorReporter.error(name, "Resolver", "Variable already defined: " + name.lexeme());
+            return scope.get(name.lexeme());
+        }
+        int slot = scope.size();
+        scope.put(name.lexeme(), slot);
+        return slot;
+    }
+
+    // index of the innermost scope of the current function declaring name, -1 for globals
+    private int lookup(Token name) {
+        for (int i = scopes.size() - 1; i >= functionBase; --i) {
+            if (scopes.get(i).containsKey(name.lexeme())) { return i; }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,113 @@
+package com.craftinginterpreters.lox;
+
+/*
+A long Lox string that has not been made into a String yet.
+
+Strings shorter than MIN_LENGTH stay Strings. Past that, plus() appends to a
+StringBuilder shared by all ropes made from it: a rope is the first length
+chars of its builder. When the left operand still ends where its builder does,
+the right one is appended in place, so building a string with s = s + t copies
+every char about once instead of once per +. When something was appended after
+it already, the left operand is copied into a new builder first.
+
+repeat() keeps the text and the count, the chars are only made when needed.
+
+toString() makes the String and keeps it. print, comparisons and hashing go
+through it, isTruthy only needs the length. A rope is never handed to another
+thread: scripts get their strings as Strings and only make ropes while they run.
+*/
+
+final class Rope {
+    static final int MIN_LENGTH = 1 << 8;
+
+    private final int length;
+    private final StringBuilder builder; // null for a repeat
+    private final String text; // what is repeated
+    private final int count;
+    private String flat = null;
+
+    private Rope(StringBuilder builder, int length) {
+        this.length = length;
+        this.builder = builder;
+        this.text = null;
+        this.count = 0;
+    }
+
+    private Rope(String text, int count) {
+        this.length = text.length() * count;
+        this.builder = null;
+        this.text = text;
+        this.count = count;
+    }
+
+    // left is a String or a Rope, right any value
+    static Object plus(Object left, Object right) {
+        // a number goes into the builder without a String of its own
+        if (left instanceof Rope rope && rope.endsBuilder()) {
+            append(rope.builder, right);
+            return new Rope(rope.builder, rope.builder.length());
+        }
+
+        String tail = Operators.stringify(right);
+        int length = length(left) + tail.length();
+        if (length < MIN_LENGTH) { return left.toString() + tail; }
+
+        StringBuilder builder = new StringBuilder(Math.max(2 * length, MIN_LENGTH));
+        if   (left instanceof Rope rope) { rope.appendTo(builder); }
+        else                             { builder.append((String)left); }
+        return new Rope(builder.append(tail), length);
+    }
+
+    static Object repeat(Object text, int count) {
+        String base = text.toString();
+        long length = (long)base.length() * count;
+        // errors and short results are String's
+        if   (count < 0 || length < MIN_LENGTH || length > Integer.MAX_VALUE) { return base.repeat(count); }
+        else                                                                  { return new Rope(base, count); }
+    }
+
+    static int length(Object text) {
+        if   (text instanceof Rope rope) { return rope.length; }
+        else                             { return ((String)text).length(); }
+    }
+
+    private boolean endsBuilder() {
+        return null != builder && length == builder.length();
+    }
+
+    private static void append(StringBuilder out, Object value) {
+        if      (value instanceof Double d) { Numbers.appendTo(out, d); }
+        else if (value instanceof Rope r)   { r.appendTo(out); }
+        else                                { out.append(Operators.stringify(value)); }
+    }
+
+    boolean isEmpty() {
+        return 0 == length;
+    }
+
+    private void appendTo(StringBuilder out) {
+        if      (null != flat)    { out.append(flat); }
+        else if (null != builder) { out.append(builder, 0, length); }
+        else                      { for (int i = 0; i < count; ++i) { out.append(text); } }
+    }
+
+    @Override
+    public String toString() {
+        if (null == flat) {
+            flat = null != builder ? builder.substring(0, length) : text.repeat(count);
+        }
+        return flat;
+    }
+
+    // equal to Ropes and Strings with the same chars, like Lox's == wants
+    @Override
+    public boolean equals(Object other) {
+        if (other instanceof Rope rope) { return length == rope.length && toString().equals(rope.toString()); }
+        else                            { return other instanceof String s && length == s.length() && toString().equals(s); }
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
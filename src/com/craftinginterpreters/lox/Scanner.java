@@ -4,58 +4,100 @@ import java.util.*;
 
 import static com.craftinginterpreters.lox.TokenType.*;
 
+/*
+Tokens only point into the source (start, length), lexemes are copied out lazily
+by Token.lexeme(), so scanning allocates nothing but the Token objects and the
+literal values.
+
+The Source is read as UTF-8 bytes. Every byte of a multi-byte char is above
+0x7f and in no class, so only strings, comments and unexpected characters ever
+see them. Columns still count UTF-16 chars like they did on a String.
+
+Characters are classified with one lookup into CLASSES, keywords are found by
+switching on their first one or two chars and comparing the rest in place, the
+same trie clox uses, integer literals are accumulated while they are scanned.
+
+Tokens are pulled one at a time with next(), so the Parser never needs more than
+a few of them at once. At the end next() keeps returning EOF.
+*/
+
 public class Scanner {
-    private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    final Source source;
+    private final int end;
+    private Token token; // set by addToken
+    private TokenType lastType; // of the last token returned, null before the first
     private int start = 0;
     private int current = 0;
     private int line = 1;
     private int column = 0;
     private boolean isInComment = false;
 
-    private static final  Map<String, TokenType> keywords;
+    // character classes of the latin-1 chars, anything above is neither
+    private static final byte DIGIT = 1;
+    private static final byte ALPHA = 2;
+    private static final byte[] CLASSES = new byte[256];
+
+    // longest exact integer literal, below 2^53
+    private static final int MAX_EXACT_DIGITS = 15;
 
     static {
-        keywords = new HashMap<>();
-        keywords.put("and",      AND);
-        keywords.put("break",    BREAK);
-        keywords.put("class",    CLASS);
-        keywords.put("continue", CONTINUE);
-        keywords.put("else",     ELSE);
-        keywords.put("false",    FALSE);
-        keywords.put("for",      FOR);
-        keywords.put("fun",      FUN);
-        keywords.put("if",       IF);
-        keywords.put("nil",      NIL);
-        keywords.put("or",       OR);
-        keywords.put("print",    PRINT);
-        keywords.put("return",   RETURN);
-        keywords.put("super",    SUPER);
-        keywords.put("this",     THIS);
-        keywords.put("true",     TRUE);
-        keywords.put("var",      VAR);
-        keywords.put("while",    WHILE);
-    }
-
-    Scanner(String source) { this.source = source; }
+        for (char c = '0'; c <= '9'; ++c) { CLASSES[c] = DIGIT; }
+        for (char c = 'a'; c <= 'z'; ++c) { CLASSES[c] = ALPHA; }
+        for (char c = 'A'; c <= 'Z'; ++c) { CLASSES[c] = ALPHA; }
+        CLASSES['_'] = ALPHA;
+    }
 
-    List<Token> scanTokens() {
+    Scanner(Source source) { this(source, 0, source.length(), 1, 0); }
+
+    // scans source from start to end, starting at that line and column
+    Scanner(Source source, int start, int end, int line, int column) {
+        this.source = source;
+        this.current = start;
+        this.end = end;
+        this.line = line;
+        this.column = column;
+    }
+
+    Scanner(String source) { this(Source.of(source)); }
+
+    Token next() {
         while (!isAtEnd()) {
             start = current;
             scanToken();
+            if (null != token) { return emit(token); }
         }
 
         // add semicolon for last statement while running prompt
-        if (!tokens.isEmpty() && Lox.isRunPrompt()) {
-            TokenType tt = tokens.get(tokens.size() - 1).type;
-            if (tt != RIGHT_BRACE && tt != SEMICOLON) {
-                tokens.add(new Token(SEMICOLON, ";", null, line, column));
+        if (null != lastType && EOF != lastType && Lox.isRunPrompt()) {
+            if (lastType != RIGHT_BRACE && lastType != SEMICOLON) {
+                return emit(new Token(SEMICOLON, ";", null, line, column));
             }
         }
-        tokens.add(new Token(EOF, "", null, line, column));
+        return emit(new Token(EOF, "", null, line, column));
+    }
+
+    // where scanning goes on after the last token, a Scanner started there scans the rest exactly like this one
+    int position() { return current; }
+
+    int line() { return line; }
+
+    int column() { return column; }
+
+    // all the tokens at once, ending with EOF
+    List<Token> scanTokens() {
+        List<Token> tokens = new ArrayList<>();
+        do {
+            tokens.add(next());
+        } while (EOF != lastType);
         return tokens;
     }
 
+    private Token emit(Token next) {
+        token = null;
+        lastType = next.type;
+        return next;
+    }
+
     private void scanToken() {
         char c = advance();
         if (isInComment) {
@@ -104,27 +146,47 @@ public class Scanner {
             default -> {
                 if      (isDigit(c)) { number(); }
                 else if (isAlpha(c)) { identifier(); }
-                else                 { error("Unexpected character: " + c);
-                }
+                else                 { unexpected(c); }
             }
         }
     }
 
-    private boolean isAtEnd() { return current >= source.length(); }
+    private boolean isAtEnd() { return current >= end; }
 
     private char advance() {
-        column++;
-        return source.charAt(current++);
+        char c = source.at(current++);
+        if   (c < 0x80) { column++; }
+        else            { column += utf16Length(c); }
+        return c;
+    }
+
+    // UTF-16 chars the UTF-8 sequence starting with byte c adds, continuation bytes add none
+    private static int utf16Length(char c) {
+        if      (c < 0xc0) { return 0; }
+        else if (c < 0xf0) { return 1; }
+        else               { return 2; }
+    }
+
+    private void unexpected(char c) {
+        if (c < 0x80) {
+            error("Unexpected character: " + c);
+            return;
+        }
+
+        while (!isAtEnd() && 0x80 == (peek() & 0xc0)) {
+            advance();
+        }
+        error("Unexpected character: " + source.string(start, current));
     }
 
     private char peek() {
         if (isAtEnd()) { return '\0'; }
-        return source.charAt(current);
+        return source.at(current);
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) { return '\0'; }
-        return source.charAt(current + 1);
+        if (current + 1 >= end) { return '\0'; }
+        return source.at(current + 1);
     }
 
     private boolean match(char expected) {
@@ -133,28 +195,28 @@ public class Scanner {
         return true;
     }
 
-    private boolean isDigit(char c) { return c >= '0' && c <= '9'; }
+    private static boolean isDigit(char c) { return c < 256 && DIGIT == CLASSES[c]; }
 
-    private boolean isAlpha(char c) {
-        return  (c >= 'a' && c <= 'z') ||
-                (c >= 'A' && c <= 'Z') ||
-                 c == '_';
-    }
+    private static boolean isAlpha(char c) { return c < 256 && ALPHA == CLASSES[c]; }
 
-    private boolean isAlphaNumeric(char c) { return isDigit(c) || isAlpha(c); }
+    private static boolean isAlphaNumeric(char c) { return c < 256 && 0 != CLASSES[c]; }
 
     private void number() {
+        long value = source.at(start) - '0';
         while (isDigit(peek())) {
-            advance();
+            value = 10 * value + advance() - '0';
         }
 
         if (peek() == '.' && isDigit(peekNext())) {
             do {
                 advance();
             } while (isDigit(peek()));
+        } else if (current - start <= MAX_EXACT_DIGITS) {
+            addToken(NUMBER, (double)value);
+            return;
         }
 
-        double literal = Double.parseDouble(source.substring(start, current));
+        double literal = Double.parseDouble(source.string(start, current));
         addToken(NUMBER, literal);
     }
 
@@ -168,7 +230,7 @@ public class Scanner {
             error("Unterminated string");
         } else {
             advance();
-            String literal = source.substring(start + 1, current - 1);
+            String literal = source.string(start + 1, current - 1);
             addToken(STRING, literal);
         }
     }
@@ -178,10 +240,50 @@ public class Scanner {
             advance();
         }
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (null == type) { type = IDENTIFIER; }
-        addToken(type);
+        addToken(keyword());
+    }
+
+    private TokenType keyword() {
+        int length = current - start;
+        if (length < 2) { return IDENTIFIER; }
+
+        char second = source.at(start + 1);
+        return switch (source.at(start)) {
+            case 'a' -> rest(1, "nd", AND);
+            case 'b' -> rest(1, "reak", BREAK);
+            case 'c' -> switch (second) {
+                case 'l' -> rest(2, "ass", CLASS);
+                case 'o' -> rest(2, "ntinue", CONTINUE);
+                default -> IDENTIFIER;
+            };
+            case 'e' -> rest(1, "lse", ELSE);
+            case 'f' -> switch (second) {
+                case 'a' -> rest(2, "lse", FALSE);
+                case 'o' -> rest(2, "r", FOR);
+                case 'u' -> rest(2, "n", FUN);
+                default -> IDENTIFIER;
+            };
+            case 'i' -> rest(1, "f", IF);
+            case 'n' -> rest(1, "il", NIL);
+            case 'o' -> rest(1, "r", OR);
+            case 'p' -> rest(1, "rint", PRINT);
+            case 'r' -> rest(1, "eturn", RETURN);
+            case 's' -> rest(1, "uper", SUPER);
+            case 't' -> switch (second) {
+                case 'h' -> rest(2, "is", THIS);
+                case 'r' -> rest(2, "ue", TRUE);
+                default -> IDENTIFIER;
+            };
+            case 'v' -> rest(1, "ar", VAR);
+            case 'w' -> rest(1, "hile", WHILE);
+            default -> IDENTIFIER;
+        };
+    }
+
+    // type when the lexeme continues with rest after its first offset chars
+    private TokenType rest(int offset, String rest, TokenType type) {
+        if   (current - start == offset + rest.length() && source.matches(start + offset, rest)) { return type; }
+        else                                                                                                           { return IDENTIFIER; }
     }
 
     private void addToken(TokenType type) {
@@ -189,8 +291,7 @@ public class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line, column));
+        token = new Token(type, source, start, current - start, literal, line, column);
     }
 
     private void error(String message) {
@@ -0,0 +1,91 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/*
+UTF-8 bytes of a script, the Scanner reads them in place.
+
+A file is memory mapped, so it is neither copied onto the heap nor decoded up
+front. Everything the scanner looks at is ASCII, it only decodes the ranges that
+become strings: lexemes, string literals and unexpected characters. The offsets
+in Tokens are byte offsets.
+
+at() reads from a byte[] window of the mapping, a plain array load is much
+cheaper than a get on the direct buffer. A source from a String is its own window.
+The window makes a Source single-threaded, other threads scan a view() of it.
+*/
+
+public class Source {
+    private static final int WINDOW = 1 << 16;
+    private static final int FIRST_WINDOW = 1 << 10;
+
+    private final ByteBuffer bytes;
+    private final int length;
+    private byte[] window;
+    private int windowStart = 0;
+
+    private Source(ByteBuffer bytes, byte[] window) {
+        this.bytes = bytes;
+        this.length = bytes.limit();
+        this.window = window;
+    }
+
+    static Source of(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return new Source(ByteBuffer.wrap(bytes), bytes);
+    }
+
+    static Source map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Source(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), new byte[0]);
+        }
+    }
+
+    // the same bytes with a window of its own
+    Source view() {
+        return new Source(bytes.duplicate(), bytes.hasArray() ? bytes.array() : new byte[0]);
+    }
+
+    int length() {
+        return length;
+    }
+
+    // the byte at index as an unsigned value, ASCII chars are themselves
+    char at(int index) {
+        int offset = index - windowStart;
+        if (offset < 0 || offset >= window.length) { offset = slide(index); }
+        return (char)(window[offset] & 0xff);
+    }
+
+    // moves the window to start at index, returns the offset of index in it
+    private int slide(int index) {
+        if (window.length < WINDOW) { window = new byte[Math.max(FIRST_WINDOW, 2 * window.length)]; }
+        windowStart = index;
+        bytes.get(index, window, 0, Math.min(window.length, length - index));
+        return 0;
+    }
+
+    // true when the bytes from start on are the ASCII text
+    boolean matches(int start, String text) {
+        for (int i = 0; i < text.length(); ++i) {
+            if (text.charAt(i) != at(start + i)) { return false; }
+        }
+        return true;
+    }
+
+    void digest(MessageDigest digest) {
+        digest.update(bytes.duplicate().clear());
+    }
+
+    String string(int start, int end) {
+        byte[] text = new byte[end - start];
+        bytes.get(start, text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+}
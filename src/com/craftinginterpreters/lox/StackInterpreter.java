@@ -0,0 +1,639 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+Tree walking engine that keeps its continuations on the heap instead of the Java stack.
+
+The work stack holds (node, state) pairs. Popping one runs the next step of that
+node: an Expr or Stmt in state 0 is entered, a higher state resumes it after its
+children, a List<Stmt> item runs the statement at index state. Operand values go
+to the value stack. Two kinds of markers are interleaved with the work:
+    Environment, state -1       leaving a block, restores that environment
+    Environment, state >= 0     a call frame, restores the caller's environment and
+                                value stack height (the state), reached by running
+                                off the end of the body it also pushes the nil result
+break, continue and return pop work items down to their loop or call frame marker.
+Lox call depth is limited by maxFrames and not by -Xss.
+
+Expressions without a call and at most DIRECT_DEPTH deep can't grow the Java stack
+much, so they are evaluated right away by direct(). Statements made only of such
+expressions run without touching the work stack, and a loop whose condition and
+body are all direct spins in visitWhileStmt/visitForStmt itself, so shallow code
+runs close to the recursive Interpreter.
+
+Results and errors (including which token they are reported at) are the same as
+Interpreter's generic paths. A call in return position reuses the frame of the
+returning function, like the tail calls of the other engines.
+*/
+
+public class StackInterpreter implements Engine,
+                                         Expr.Visitor<Void>,
+                                         Stmt.Visitor<Void> {
+    static int maxFrames = 1 << 20;
+    static final int DIRECT_DEPTH = 32;
+
+    private static final int BLOCK = -1;
+    // stands for the null environment of top level code in markers
+    private static final Environment TOP_LEVEL = new Environment(null, 0);
+
+    final Globals globals = new Globals();
+    private Object[] work = new Object[256];
+    private int[] states = new int[256];
+    private int wp = 0;
+    private Object[] values = new Object[256];
+    private int vp = 0;
+
+    private Environment environment = null;
+    private int frames = 0;
+    private int state; // of the item being run
+    private Token throwToken;
+
+    StackInterpreter() {
+        globals.defineNatives();
+    }
+
+    @Override
+    public void interpret(List<Stmt> statements) {
+        try {
+            if (!statements.isEmpty()) { push(statements, 0); }
+            run();
+        } catch (RuntimeError error) {
+            ErrorReporter.error(error);
+        } finally {
+            Arrays.fill(work, 0, wp, null);
+            Arrays.fill(values, 0, vp, null);
+            wp = 0;
+            vp = 0;
+            frames = 0;
+            environment = null;
+        }
+    }
+
+    private void run() {
+        while (0 != wp) {
+            Object item = work[--wp];
+            work[wp] = null;
+            state = states[wp];
+
+            if      (item instanceof Expr expr) { expr.accept(this); }
+            else if (item instanceof Stmt stmt) { stmt.accept(this); }
+            else if (item instanceof List<?> list) { runStatement(list); }
+            else if (BLOCK == state)            { leave((Environment)item, state); }
+            else                                { exitFrame((Environment)item, state); pushValue(null); }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void runStatement(List<?> stmts) {
+        runStatements((List<Stmt>)stmts, state);
+    }
+
+    // runs the direct statements from index from on, the rest is left on the work stack
+    private void runStatements(List<Stmt> stmts, int from) {
+        int i = from;
+        while (i < stmts.size() && executeDirect(stmts.get(i))) { ++i; }
+        if (i + 1 < stmts.size()) { push(stmts, i + 1); }
+        if (i < stmts.size())     { push(stmts.get(i), 0); }
+    }
+
+    // runs stmt right away if it is made of direct expressions, false if it wasn't run
+    private boolean executeDirect(Stmt stmt) {
+        if (null == stmt) { return true; }
+        if (stmt instanceof Stmt.Expression expression && isDirect(expression.expr)) {
+            direct(expression.expr);
+            return true;
+        }
+        if (stmt instanceof Stmt.Print print && isDirect(print.expr)) {
+            Output.print(direct(print.expr));
+            return true;
+        }
+        if (stmt instanceof Stmt.Variable variable && (null == variable.initializer || isDirect(variable.initializer))) {
+            Object value = null == variable.initializer ? null : direct(variable.initializer);
+            if   (-1 == variable.slot) { globals.define(variable.name, value); }
+            else                       { environment.define(variable.slot, value); }
+            return true;
+        }
+        if (stmt instanceof Stmt.Function function) {
+            visitFunctionStmt(function);
+            return true;
+        }
+        return false;
+    }
+
+    // the function ran to its end or returns, its values go and the caller's environment is back
+    private void exitFrame(Environment previous, int valueBase) {
+        Arrays.fill(values, valueBase, vp, null);
+        vp = valueBase;
+        leave(previous, valueBase);
+    }
+
+    private void leave(Environment previous, int valueBase) {
+        environment = TOP_LEVEL == previous ? null : previous;
+        if (BLOCK != valueBase) { frames--; }
+    }
+
+    // starts stmt, when it is direct or a block of direct statements it is already done on return
+    private void execute(Stmt stmt) {
+        if (executeDirect(stmt)) { return; }
+        if   (stmt instanceof Stmt.Block block) { visitBlockStmt(block); }
+        else                                    { push(stmt, 0); }
+    }
+
+    // leaves the value of expr on the value stack, now or once the work pushed for it has run
+    private void evaluate(Expr expr) {
+        if      (null == expr)     { pushValue(null); }
+        else if (isDirect(expr))   { pushValue(direct(expr)); }
+        else                       { push(expr, 0); }
+    }
+
+    private static boolean isDirect(Expr expr) {
+        if (0 == expr.direct) { expr.direct = (byte)(isDirect(expr, DIRECT_DEPTH) ? 1 : 2); }
+        return 1 == expr.direct;
+    }
+
+    // no call and at most depth deep, recurses at most depth times
+    private static boolean isDirect(Expr expr, int depth) {
+        if (0 == depth) { return false; }
+        if (expr instanceof Expr.Literal || expr instanceof Expr.Variable) { return true; }
+        if (expr instanceof Expr.Assign assign)     { return isDirect(assign.value, depth - 1); }
+        if (expr instanceof Expr.Unary unary)       { return isDirect(unary.expr, depth - 1); }
+        if (expr instanceof Expr.Grouping grouping) { return isDirect(grouping.expr, depth - 1); }
+        if (expr instanceof Expr.Binary binary)     { return isDirect(binary.left, depth - 1) && isDirect(binary.right, depth - 1); }
+        if (expr instanceof Expr.Logical logical)   { return isDirect(logical.left, depth - 1) && isDirect(logical.right, depth - 1); }
+        if (expr instanceof Expr.Ternary ternary) {
+            return isDirect(ternary.condition, depth - 1) && isDirect(ternary.first, depth - 1) && isDirect(ternary.second, depth - 1);
+        }
+        return false;
+    }
+
+    // recursive evaluation of a direct expression, same order and errors as the work stack states below
+    private Object direct(Expr expr) {
+        if (expr instanceof Expr.Literal literal)   { return literal.value; }
+        if (expr instanceof Expr.Variable variable) { return lookup(variable); }
+        if (expr instanceof Expr.Binary binary) {
+            Object left = direct(binary.left);
+            return binary(binary.operator, left, direct(binary.right));
+        }
+        if (expr instanceof Expr.Assign assign) {
+            Object value = direct(assign.value);
+            if   (-1 == assign.depth) { globals.assign(assign.name, value); }
+            else                      { environment.assignAt(assign.depth, assign.slot, value); }
+            return value;
+        }
+        if (expr instanceof Expr.Grouping grouping) { return direct(grouping.expr); }
+        if (expr instanceof Expr.Unary unary)       { return unary(unary.operator, direct(unary.expr)); }
+        if (expr instanceof Expr.Logical logical) {
+            boolean left = Operators.isTruthy(direct(logical.left), logical.operator);
+            if   ((TokenType.AND == logical.operator.type) == left) { return Operators.isTruthy(direct(logical.right), logical.operator); }
+            else                                                    { return left; }
+        }
+
+        Expr.Ternary ternary = (Expr.Ternary)expr;
+        boolean condition = Operators.isTruthy(direct(ternary.condition), ternary.condition);
+        Object first = direct(ternary.first);
+        Object second = direct(ternary.second);
+        throwToken = null;
+        return condition ? first : second;
+    }
+
+    private Object lookup(Expr.Variable variable) {
+        if   (-1 == variable.depth) { return globals.get(variable.name); }
+        else                        { return environment.getAt(variable.depth, variable.slot); }
+    }
+
+    @Override
+    public Void visitExprStmt(Stmt.Expression stmt) {
+        if   (0 == state) { push(stmt, 1); evaluate(stmt.expr); }
+        else              { popValue(); }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        if   (0 == state) { push(stmt, 1); evaluate(stmt.expr); }
+        else              { Output.print(popValue()); }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableStmt(Stmt.Variable stmt) {
+        if (0 == state) {
+            push(stmt, 1);
+            evaluate(stmt.initializer);
+            return null;
+        }
+
+        Object value = popValue();
+        if   (-1 == stmt.slot) { globals.define(stmt.name, value); }
+        else                   { environment.define(stmt.slot, value); }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.stmts.isEmpty()) { return null; }
+
+        if (0 == stmt.frameSize) {
+            runStatements(stmt.stmts, 0);
+            return null;
+        }
+
+        Environment previous = environment;
+        int mark = wp;
+        push(null == previous ? TOP_LEVEL : previous, BLOCK);
+        environment = new Environment(previous, stmt.frameSize);
+        runStatements(stmt.stmts, 0);
+        if (mark + 1 == wp) {
+            // everything ran, only the marker is left
+            work[--wp] = null;
+            environment = previous;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        if (0 == state) {
+            push(stmt, 1);
+            evaluate(stmt.condition);
+            return null;
+        }
+
+        if   (Operators.isTruthy(popValue(), stmt.condition)) { execute(stmt.ifBlock); }
+        else                                                  { execute(stmt.elseBlock); }
+        return null;
+    }
+
+    // states of a while loop
+    private static final int WHILE_CONDITION = 1;
+    private static final int WHILE_BODY = 2; // break and continue unwind to this item
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        if (WHILE_CONDITION == state) {
+            if (Operators.isTruthy(popValue(), stmt.condition)) { iterate(stmt, WHILE_BODY, stmt.block); }
+        } else if (!isDirect(stmt.condition)) {
+            push(stmt, WHILE_CONDITION);
+            evaluate(stmt.condition);
+        } else {
+            while (Operators.isTruthy(direct(stmt.condition), stmt.condition) && iterate(stmt, WHILE_BODY, stmt.block)) { }
+        }
+        return null;
+    }
+
+    // runs one iteration of the loop body, true if it is done already and the loop item was taken back
+    private boolean iterate(Stmt loop, int bodyState, Stmt body) {
+        int mark = wp;
+        push(loop, bodyState);
+        execute(body);
+        if (mark + 1 != wp) { return false; }
+
+        work[--wp] = null;
+        return true;
+    }
+
+    // states of a for loop, 0 runs the initializer in the loop's own frame
+    private static final int FOR_CONDITION = 1;
+    private static final int FOR_TEST = 2;
+    private static final int FOR_BODY = 3; // break and continue unwind to this item
+    private static final int FOR_INCREASE = 4;
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        switch (state) {
+            case 0 -> {
+                if (0 != stmt.frameSize) {
+                    push(null == environment ? TOP_LEVEL : environment, BLOCK);
+                    environment = new Environment(environment, stmt.frameSize);
+                }
+                push(stmt, FOR_CONDITION);
+                execute(stmt.init);
+            }
+            case FOR_CONDITION -> test(stmt);
+            case FOR_TEST -> {
+                if (Operators.isTruthy(popValue(), stmt.condition)) { loop(stmt); }
+            }
+            case FOR_BODY -> {
+                if (null == stmt.increase || isDirect(stmt.increase)) {
+                    if (null != stmt.increase) { direct(stmt.increase); }
+                    test(stmt);
+                } else {
+                    push(stmt, FOR_INCREASE);
+                    evaluate(stmt.increase);
+                }
+            }
+            default -> {
+                popValue();
+                test(stmt);
+            }
+        }
+        return null;
+    }
+
+    private void test(Stmt.For stmt) {
+        if (isDirect(stmt.condition)) {
+            if (Operators.isTruthy(direct(stmt.condition), stmt.condition)) { loop(stmt); }
+        } else {
+            push(stmt, FOR_TEST);
+            evaluate(stmt.condition);
+        }
+    }
+
+    // runs iterations of a for loop whose condition was true while they need no work stack
+    private void loop(Stmt.For stmt) {
+        boolean spins = isDirect(stmt.condition) && (null == stmt.increase || isDirect(stmt.increase));
+        for (;;) {
+            if (!iterate(stmt, FOR_BODY, stmt.block)) { return; }
+            if (!spins) {
+                push(stmt, FOR_BODY); // so the increase and the test run as usual
+                return;
+            }
+            if (null != stmt.increase) { direct(stmt.increase); }
+            if (!Operators.isTruthy(direct(stmt.condition), stmt.condition)) { return; }
+        }
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        unwindToLoop(stmt.keyword, "No loop to catch break statement");
+        wp--; // the loop is done
+        work[wp] = null;
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        unwindToLoop(stmt.keyword, "No loop to catch continue statement");
+        return null;
+    }
+
+    // pops work down to the innermost loop of the current function, which stays on top
+    private void unwindToLoop(Token keyword, String message) {
+        for (;;) {
+            if (0 == wp) { throw Operators.error(keyword, message); }
+
+            Object item = work[wp - 1];
+            int itemState = states[wp - 1];
+            if (item instanceof Stmt.While && WHILE_BODY == itemState) { return; }
+            if (item instanceof Stmt.For && FOR_BODY == itemState)     { return; }
+            if (item instanceof Environment previous) {
+                if (BLOCK != itemState) { throw Operators.error(keyword, message); }
+                environment = TOP_LEVEL == previous ? null : previous;
+            }
+            work[--wp] = null;
+        }
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        LoxFunction function = new LoxFunction(stmt);
+        if   (-1 == stmt.slot) { globals.define(stmt.name, function); }
+        else                   { environment.define(stmt.slot, function); }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (!stmt.inFunction) { throw Operators.error(stmt.keyword, "Cannot return from top level code"); }
+
+        if (0 == state) {
+            push(stmt, 1);
+            evaluate(stmt.expr);
+            return null;
+        }
+
+        Object value = popValue();
+        unwindToFrame();
+        pushValue(value);
+        return null;
+    }
+
+    // pops work down to and including the marker of the current call frame
+    private void unwindToFrame() {
+        for (;;) {
+            Object item = work[--wp];
+            work[wp] = null;
+            if (item instanceof Environment previous && BLOCK != states[wp]) {
+                exitFrame(previous, states[wp]);
+                return;
+            }
+        }
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        pushValue(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        if (0 == state) {
+            push(expr, 1);
+            evaluate(expr.value);
+            return null;
+        }
+
+        Object value = values[vp - 1];
+        if   (-1 == expr.depth) { globals.assign(expr.name, value); }
+        else                    { environment.assignAt(expr.depth, expr.slot, value); }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        if (0 == state) {
+            push(expr, 1);
+            evaluate(expr.expr);
+            return null;
+        }
+
+        pushValue(unary(expr.operator, popValue()));
+        return null;
+    }
+
+    private Object unary(Token operator, Object right) {
+        throwToken = operator;
+        return switch (operator.type) {
+            case MINUS -> -Operators.number(right, operator);
+            case BANG  -> !Operators.isTruthy(right, operator);
+            default -> throw Operators.error(operator, "Unknown Unary Operator");
+        };
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        switch (state) {
+            case 0 -> {
+                push(expr, 1);
+                evaluate(expr.left);
+            }
+            case 1 -> {
+                push(expr, 2);
+                evaluate(expr.right);
+            }
+            default -> {
+                Object right = popValue();
+                Object left = popValue();
+                pushValue(binary(expr.operator, left, right));
+            }
+        }
+        return null;
+    }
+
+    private Object binary(Token operator, Object left, Object right) {
+        throwToken = operator;
+        return switch (operator.type) {
+            case PLUS  -> left instanceof Double l && right instanceof Double r ? l + r : Operators.plus(left, right, operator);
+            case STAR  -> Operators.multiply(left, right, operator);
+            case SLASH -> Operators.divide(left, right, operator);
+            case MINUS -> Operators.number(left, operator) - Operators.number(right, operator);
+            case COMMA -> right;
+            case GREATER       -> Operators.number(left, operator) > Operators.number(right, operator);
+            case LESS          -> Operators.number(left, operator) < Operators.number(right, operator);
+            case GREATER_EQUAL -> Operators.number(left, operator) >= Operators.number(right, operator);
+            case LESS_EQUAL    -> Operators.number(left, operator) <= Operators.number(right, operator);
+            case BANG_EQUAL    -> !Operators.isEqual(left, right);
+            case EQUAL_EQUAL   -> Operators.isEqual(left, right);
+            default -> throw Operators.error(operator, "Unknown Binary Operator");
+        };
+    }
+
+    @Override
+    public Void visitTernaryExpr(Expr.Ternary expr) {
+        // all three operands are evaluated, the condition is tested before the other two
+        switch (state) {
+            case 0 -> {
+                push(expr, 1);
+                evaluate(expr.condition);
+            }
+            case 1 -> {
+                pushValue(Operators.isTruthy(popValue(), expr.condition));
+                push(expr, 2);
+                evaluate(expr.first);
+            }
+            case 2 -> {
+                push(expr, 3);
+                evaluate(expr.second);
+            }
+            default -> {
+                Object second = popValue();
+                Object first = popValue();
+                boolean condition = (Boolean)popValue();
+                throwToken = null;
+                pushValue(condition ? first : second);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        evaluate(expr.expr);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        pushValue(lookup(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        if (0 == state) {
+            push(expr, 1);
+            evaluate(expr.left);
+            return null;
+        }
+        if (2 == state) {
+            pushValue(Operators.isTruthy(popValue(), expr.operator));
+            return null;
+        }
+
+        boolean left = Operators.isTruthy(popValue(), expr.operator);
+        if ((TokenType.AND == expr.operator.type) == left) {
+            push(expr, 2);
+            evaluate(expr.right);
+        } else {
+            pushValue(left);
+        }
+        return null;
+    }
+
+    // state 1 + i evaluates argument i, the callee and the arguments are on the value stack once state passes them all
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        int arity = expr.arguments.size();
+        if (0 == state) {
+            push(expr, 1);
+            evaluate(expr.callee);
+            return null;
+        }
+        if (1 == state) { throwToken = expr.rightParen; }
+        if (state <= arity) {
+            push(expr, state + 1);
+            evaluate(expr.arguments.get(state - 1));
+            return null;
+        }
+
+        Object callee = values[vp - arity - 1];
+        if (callee instanceof LoxFunction function && arity == function.arity()) {
+            Environment frame = new Environment(null, function.declaration.frameSize());
+            for (int i = 0; i < arity; ++i) {
+                frame.define(i, values[vp - arity + i]);
+            }
+            Arrays.fill(values, vp - arity - 1, vp, null);
+            vp -= arity + 1;
+
+            if (isTailCall(expr)) {
+                unwindToFrame();
+            } else if (maxFrames == frames) {
+                throw Operators.error(expr.rightParen, "Stack overflow");
+            }
+            push(null == environment ? TOP_LEVEL : environment, vp);
+            frames++;
+            environment = frame;
+            if (!function.declaration.body().isEmpty()) { push(function.declaration.body(), 0); }
+            return null;
+        }
+
+        if (!(callee instanceof LoxCallable function)) { throw Operators.error(throwToken, "Can only call on functions and classes"); }
+        if (arity != function.arity()) {
+            throw Operators.error(throwToken, String.format("Expect %d but get %d arguments", function.arity(), arity));
+        }
+        List<Object> args = new ArrayList<>(Arrays.asList(values).subList(vp - arity, vp));
+        Arrays.fill(values, vp - arity - 1, vp, null);
+        vp -= arity + 1;
+        pushValue(function.call(null, args));
+        return null;
+    }
+
+    // the call is the value of a return statement, which is the next item, so its frame can go first
+    private boolean isTailCall(Expr.Call expr) {
+        return 0 != wp && work[wp - 1] instanceof Stmt.Return returnStmt && expr == returnStmt.expr;
+    }
+
+    private void push(Object item, int itemState) {
+        if (wp == work.length) {
+            work = Arrays.copyOf(work, 2 * wp);
+            states = Arrays.copyOf(states, 2 * wp);
+        }
+        work[wp] = item;
+        states[wp++] = itemState;
+    }
+
+    private void pushValue(Object value) {
+        if (vp == values.length) { values = Arrays.copyOf(values, 2 * vp); }
+        values[vp++] = value;
+    }
+
+    private Object popValue() {
+        Object value = values[--vp];
+        values[vp] = null;
+        return value;
+    }
+}
@@ -49,6 +49,7 @@ public abstract class Stmt {
    public static class Variable extends Stmt {
         final Token name;
         final Expr initializer;
+        int slot = -1; // filled by Resolver, -1 means global
 
         Variable(Token name, Expr initializer) {
             this.name = name;
@@ -63,6 +64,7 @@ public abstract class Stmt {
 
    public static class Block extends Stmt {
         final List<Stmt> stmts;
+        int frameSize = 0; // filled by Resolver, 0 means no frame is needed
 
         Block(List<Stmt> stmts) {
             this.stmts = stmts;
@@ -94,6 +96,8 @@ public abstract class Stmt {
    public static class While extends Stmt {
         final Expr condition;
         final Stmt block;
+        int backEdges = 0;                           // iterations run by the interpreter
+        ClosureCompiler.StmtNode compiledLoop = null; // set once the loop is hot
 
         While(Expr condition, Stmt block) {
             this.condition = condition;
@@ -111,6 +115,9 @@ public abstract class Stmt {
         final Expr condition;
         final Expr increase;
         final Stmt block;
+        int frameSize = 0; // filled by Resolver, 0 means no frame is needed
+        int backEdges = 0;                           // iterations run by the interpreter
+        ClosureCompiler.StmtNode compiledLoop = null; // set once the loop is hot, starts at the condition
 
         For(Stmt init, Expr condition, Expr increase, Stmt block) {
             this.init = init;
@@ -126,6 +133,12 @@ public abstract class Stmt {
    }
 
    public static class Break extends Stmt {
+        final Token keyword; // for error reporting
+
+        Break(Token keyword) {
+            this.keyword = keyword;
+        }
+
         @Override
        <R> R accept(Visitor<R> visitor) {
             return visitor.visitBreakStmt(this);
@@ -133,6 +146,12 @@ public abstract class Stmt {
    }
 
    public static class Continue extends Stmt {
+       final Token keyword; // for error reporting
+
+       Continue(Token keyword) {
+           this.keyword = keyword;
+       }
+
        @Override
        <R> R accept(Visitor<R> visitor) {
            return visitor.visitContinueStmt(this);
@@ -142,7 +161,10 @@ public abstract class Stmt {
    public static class Function extends Stmt {
         final Token name;
         final List<Token> params;
-        final List<Stmt> body;
+        private List<Stmt> body;
+        private Parser.LazyBody lazyBody; // set while the body is only brace matched
+        int slot = -1;     // filled by Resolver, -1 means global
+        int frameSize = 0; // filled by Resolver, params and top level locals of body
 
         Function(Token name, List<Token> params, List<Stmt> body) {
             this.name = name;
@@ -150,6 +172,31 @@ public abstract class Stmt {
             this.body = body;
         }
 
+        Function(Token name, List<Token> params, Parser.LazyBody lazyBody) {
+            this.name = name;
+            this.params = params;
+            this.lazyBody = lazyBody;
+        }
+
+        // a lazy body is parsed, resolved and optimized on first use, throws a RuntimeError if it has errors
+        List<Stmt> body() {
+            if (null != lazyBody) {
+                body = lazyBody.parse(this);
+                lazyBody = null;
+            }
+            return body;
+        }
+
+        boolean isParsed() {
+            return null == lazyBody;
+        }
+
+        // frameSize once the body is resolved
+        int frameSize() {
+            body();
+            return frameSize;
+        }
+
         <R> R accept(Visitor<R> visitor) {
             return visitor.visitFunctionStmt(this);
         }
@@ -158,6 +205,7 @@ public abstract class Stmt {
    public static class Return extends Stmt {
        final Token keyword; // for error reporting
        final Expr expr;
+       boolean inFunction = false; // filled by Resolver, a call returned from a function replaces its frame
 
        public Return(Token keyword, Expr expr) {
            this.keyword = keyword;
@@ -1,21 +1,37 @@
 package com.craftinginterpreters.lox;
 
+// a token is a range of the source, its lexeme is only copied out the first time it is asked for
 public class Token {
     final TokenType type;
-    final String lexeme;
     final Object literal;
     final int line;
     final int column;
+    private final Source source;
+    final int start;
+    final int length;
+    private String lexeme;
 
-    Token(TokenType type, String lexeme, Object literal, int line, int column) {
+    Token(TokenType type, Source source, int start, int length, Object literal, int line, int column) {
         this.type = type;
-        this.lexeme = lexeme;
+        this.source = source;
+        this.start = start;
+        this.length = length;
         this.literal = literal;
         this.line = line;
         this.column = column;
     }
 
+    Token(TokenType type, String lexeme, Object literal, int line, int column) {
+        this(type, null, 0, lexeme.length(), literal, line, column);
+        this.lexeme = lexeme;
+    }
+
+    String lexeme() {
+        if (null == lexeme) { lexeme = source.string(start, start + length); }
+        return lexeme;
+    }
+
     public String toString() {
-        return type + " " + lexeme + " " + literal;
+        return type + " " + lexeme() + " " + literal;
     }
 }
@@ -0,0 +1,42 @@
+package com.craftinginterpreters.lox;
+
+/*
+Operand types observed at a Binary, Unary or Logical site.
+
+A site starts UNINITIALIZED. Its first evaluation specializes it on the types it
+sees, later evaluations only check a guard and run the code for that type. When a
+guard fails the site falls back to GENERIC for good, so a polymorphic site does not
+flip back and forth.
+*/
+
+public final class TypeFeedback {
+    static final byte UNINITIALIZED = 0;
+    static final byte NUMBER        = 1; // every operand is a Double
+    static final byte STRING        = 2; // the left operand of + is a String or a Rope
+    static final byte BOOLEAN       = 3; // every operand is a Boolean
+    static final byte GENERIC       = 4;
+
+    // counts over every site of one interpreter
+    int monomorphic = 0;
+    int generic = 0;
+    int deoptimized = 0;
+
+    byte specialize(byte feedback) {
+        if   (GENERIC == feedback) { generic++; }
+        else                       { monomorphic++; }
+        return feedback;
+    }
+
+    byte deoptimize() {
+        monomorphic--;
+        generic++;
+        deoptimized++;
+        return GENERIC;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("operator sites: %d monomorphic, %d generic, %d deoptimized",
+                             monomorphic, generic, deoptimized);
+    }
+}
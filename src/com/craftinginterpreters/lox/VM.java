@@ -0,0 +1,282 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+Stack based virtual machine running the output of Compiler.
+
+A call frame owns stack[base, base + localCount) for its locals, the operand stack
+lives right above them. Lox calls do not recurse on the Java stack, the dispatch
+loop just switches to the callee frame. A tail call reuses the frame of the function
+returning it, so tail recursion is not limited by FRAMES_MAX.
+*/
+
+public class VM implements Engine {
+    private static final int FRAMES_MAX = 1 << 16;
+    // by OpCode.MISPLACED_* kind
+    private static final String[] MISPLACED_MESSAGES = {
+        "No loop to catch break statement", "No loop to catch continue statement", "Cannot return from top level code"
+    };
+
+    private static class CallFrame {
+        CompiledFunction function;
+        int ip;
+        int base;
+    }
+
+    final Globals globals = new Globals();
+    private Object[] stack = new Object[1024];
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+
+    VM() {
+        globals.defineNatives();
+    }
+
+    @Override
+    public void interpret(List<Stmt> statements) {
+        try {
+            // inside the try, compiling a lazy function body can fail
+            CompiledFunction script = new Compiler().compile(statements);
+            if (null == script) { return; }
+
+            frameCount = 0;
+            ensureStack(script.frameSize());
+            pushFrame(script, 0);
+            run();
+        } catch (RuntimeError error) {
+            ErrorReporter.error(error);
+        } finally {
+            Arrays.fill(stack, null);
+            frameCount = 0;
+        }
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.function.chunk.code;
+        Object[] constants = frame.function.chunk.constants;
+        Token[] tokens = frame.function.chunk.tokens;
+        Object[] stack = this.stack;
+        int ip = frame.ip;
+        int base = frame.base;
+        int sp = base + frame.function.localCount;
+
+        for (;;) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT -> {
+                    stack[sp++] = constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                }
+                case OpCode.CONSTANT_LONG -> {
+                    stack[sp++] = constants[((code[ip] & 0xff) << 16) | ((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)];
+                    ip += 3;
+                }
+                case OpCode.NIL   -> stack[sp++] = null;
+                case OpCode.TRUE  -> stack[sp++] = Boolean.TRUE;
+                case OpCode.FALSE -> stack[sp++] = Boolean.FALSE;
+                case OpCode.POP   -> sp--;
+                case OpCode.DUP   -> {
+                    stack[sp] = stack[sp - 1];
+                    sp++;
+                }
+
+                case OpCode.GET_LOCAL    -> stack[sp++] = stack[base + (code[ip++] & 0xff)];
+                case OpCode.SET_LOCAL    -> stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                case OpCode.DEFINE_LOCAL -> stack[base + (code[ip++] & 0xff)] = stack[--sp];
+                case OpCode.GET_GLOBAL    -> stack[sp++] = globals.get(tokens[ip - 1]);
+                case OpCode.SET_GLOBAL    -> globals.assign(tokens[ip - 1], stack[sp - 1]);
+                case OpCode.DEFINE_GLOBAL -> globals.define(tokens[ip - 1], stack[--sp]);
+
+                case OpCode.ADD -> {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    if (left instanceof Double l && right instanceof Double r) { stack[sp - 1] = l + r; }
+                    else { stack[sp - 1] = Operators.plus(left, right, tokens[ip - 1]); }
+                }
+                case OpCode.SUBTRACT -> {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Operators.number(stack[sp - 1], tokens[ip - 1]) - Operators.number(right, tokens[ip - 1]);
+                }
+                case OpCode.MULTIPLY -> {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Operators.multiply(stack[sp - 1], right, tokens[ip - 1]);
+                }
+                case OpCode.DIVIDE -> {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Operators.divide(stack[sp - 1], right, tokens[ip - 1]);
+                }
+                case OpCode.NEGATE -> stack[sp - 1] = -Operators.number(stack[sp - 1], tokens[ip - 1]);
+                case OpCode.NOT    -> stack[sp - 1] = !Operators.isTruthy(stack[sp - 1], tokens[ip - 1]);
+                case OpCode.TRUTHY -> stack[sp - 1] = Operators.isTruthy(stack[sp - 1], tokens[ip - 1]);
+
+                case OpCode.EQUAL -> {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Operators.isEqual(stack[sp - 1], right);
+                }
+                case OpCode.NOT_EQUAL -> {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = !Operators.isEqual(stack[sp - 1], right);
+                }
+                case OpCode.GREATER -> {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Operators.number(stack[sp - 1], tokens[ip - 1]) > Operators.number(right, tokens[ip - 1]);
+                }
+                case OpCode.GREATER_EQUAL -> {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Operators.number(stack[sp - 1], tokens[ip - 1]) >= Operators.number(right, tokens[ip - 1]);
+                }
+                case OpCode.LESS -> {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Operators.number(stack[sp - 1], tokens[ip - 1]) < Operators.number(right, tokens[ip - 1]);
+                }
+                case OpCode.LESS_EQUAL -> {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Operators.number(stack[sp - 1], tokens[ip - 1]) <= Operators.number(right, tokens[ip - 1]);
+                }
+                case OpCode.SELECT -> {
+                    sp -= 2;
+                    stack[sp - 1] = (Boolean)stack[sp - 1] ? stack[sp] : stack[sp + 1];
+                }
+
+                case OpCode.JUMP -> ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                case OpCode.JUMP_IF_FALSE -> {
+                    if   (Operators.isTruthy(stack[--sp], tokens[ip - 1])) { ip += 2; }
+                    else { ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2; }
+                }
+                case OpCode.JUMP_IF_TRUE -> {
+                    if   (Operators.isTruthy(stack[--sp], tokens[ip - 1])) { ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2; }
+                    else { ip += 2; }
+                }
+                case OpCode.LOOP -> ip += 2 - (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                case OpCode.JUMP_IF_NOT_GREATER -> {
+                    sp -= 2;
+                    if   (Operators.number(stack[sp], tokens[ip - 1]) > Operators.number(stack[sp + 1], tokens[ip - 1])) { ip += 2; }
+                    else { ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2; }
+                }
+                case OpCode.JUMP_IF_NOT_GREATER_EQUAL -> {
+                    sp -= 2;
+                    if   (Operators.number(stack[sp], tokens[ip - 1]) >= Operators.number(stack[sp + 1], tokens[ip - 1])) { ip += 2; }
+                    else { ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2; }
+                }
+                case OpCode.JUMP_IF_NOT_LESS -> {
+                    sp -= 2;
+                    if   (Operators.number(stack[sp], tokens[ip - 1]) < Operators.number(stack[sp + 1], tokens[ip - 1])) { ip += 2; }
+                    else { ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2; }
+                }
+                case OpCode.JUMP_IF_NOT_LESS_EQUAL -> {
+                    sp -= 2;
+                    if   (Operators.number(stack[sp], tokens[ip - 1]) <= Operators.number(stack[sp + 1], tokens[ip - 1])) { ip += 2; }
+                    else { ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2; }
+                }
+
+                case OpCode.CALL -> {
+                    int argCount = code[ip++] & 0xff;
+                    Object callee = stack[sp - argCount - 1];
+
+                    if (callee instanceof CompiledFunction function) {
+                        if (function.arity != argCount) { throw arityError(tokens[ip - 1], function.arity, argCount); }
+                        if (frameCount == FRAMES_MAX)   { throw Operators.error(tokens[ip - 1], "Stack overflow"); }
+
+                        frame.ip = ip;
+                        base = sp - argCount;
+                        stack = ensureStack(base + function.frameSize());
+                        frame = pushFrame(function, base);
+                        code = function.chunk.code;
+                        constants = function.chunk.constants;
+                        tokens = function.chunk.tokens;
+                        ip = 0;
+                        sp = base + function.localCount;
+                    } else if (callee instanceof LoxCallable function) {
+                        stack[sp - argCount - 1] = callNative(function, stack, sp, argCount, tokens[ip - 1]);
+                        sp -= argCount;
+                    } else {
+                        throw Operators.error(tokens[ip - 1], "Can only call on functions and classes");
+                    }
+                }
+                case OpCode.TAIL_CALL -> {
+                    int argCount = code[ip++] & 0xff;
+                    Object callee = stack[sp - argCount - 1];
+
+                    if (callee instanceof CompiledFunction function) {
+                        if (function.arity != argCount) { throw arityError(tokens[ip - 1], function.arity, argCount); }
+
+                        // the callee and its arguments move down over the returning function and its locals
+                        System.arraycopy(stack, sp - argCount - 1, stack, base - 1, argCount + 1);
+                        stack = ensureStack(base + function.frameSize());
+                        frame.function = function;
+                        code = function.chunk.code;
+                        constants = function.chunk.constants;
+                        tokens = function.chunk.tokens;
+                        ip = 0;
+                        sp = base + function.localCount;
+                    } else if (callee instanceof LoxCallable function) {
+                        stack[sp - argCount - 1] = callNative(function, stack, sp, argCount, tokens[ip - 1]);
+                        sp -= argCount;
+                    } else {
+                        throw Operators.error(tokens[ip - 1], "Can only call on functions and classes");
+                    }
+                }
+                case OpCode.RETURN -> {
+                    Object result = stack[--sp];
+                    frameCount--;
+                    if (0 == frameCount) { return; }
+
+                    sp = base - 1;
+                    stack[sp++] = result;
+                    frame = frames[frameCount - 1];
+                    code = frame.function.chunk.code;
+                    constants = frame.function.chunk.constants;
+                    tokens = frame.function.chunk.tokens;
+                    ip = frame.ip;
+                    base = frame.base;
+                }
+                case OpCode.PRINT -> Output.print(stack[--sp]);
+                case OpCode.MISPLACED -> throw Operators.error(tokens[ip - 1], MISPLACED_MESSAGES[code[ip]]);
+
+                default -> throw Operators.error(tokens[ip - 1], "Unknown opcode " + code[ip - 1]);
+            }
+        }
+    }
+
+    private CallFrame pushFrame(CompiledFunction function, int base) {
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        CallFrame frame = frames[frameCount];
+        if (null == frame) {
+            frame = new CallFrame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+
+        frame.function = function;
+        frame.ip = 0;
+        frame.base = base;
+        return frame;
+    }
+
+    private Object[] ensureStack(int size) {
+        if (size > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(size, stack.length * 2));
+        }
+        return stack;
+    }
+
+    // a callable that is not a CompiledFunction, its arguments are the argCount values below sp
+    private static Object callNative(LoxCallable function, Object[] stack, int sp, int argCount, Token token) {
+        if (function.arity() != argCount) { throw arityError(token, function.arity(), argCount); }
+
+        List<Object> args = new ArrayList<>(argCount);
+        for (int i = sp - argCount; i < sp; ++i) {
+            args.add(stack[i]);
+        }
+        return function.call(null, args);
+    }
+
+    private static RuntimeError arityError(Token token, int arity, int argCount) {
+        return Operators.error(token, String.format("Expect %d but get %d arguments", arity, argCount));
+    }
+}
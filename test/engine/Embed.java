@@ -0,0 +1,82 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/*
+Runs a script through LoxEngine instead of the command line, for the test/engine
+files that name it with "// main: Embed".
+
+The script is compiled once and executed RUNS times in each of CONTEXTS contexts,
+every context on a thread of its own and all of them at the same time. Each run
+gets the inputs context (1 to CONTEXTS) and run (1 to RUNS). What every run
+printed, followed by the errors it failed with, is written out afterwards context by
+context, so the output doesn't depend on how the threads were scheduled. Flags
+are ignored, the last argument is the script.
+*/
+
+public class Embed {
+    static final int CONTEXTS = 3;
+    static final int RUNS = 2;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String source = new String(Files.readAllBytes(Paths.get(args[args.length - 1])));
+        LoxEngine engine = new LoxEngine();
+        LoxEngine.Script script;
+        try {
+            script = engine.compile(source);
+        } catch (LoxEngine.LoxException e) {
+            for (String error : e.errors()) { System.out.println(error); }
+            return;
+        }
+
+        List<List<String>> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        CountDownLatch start = new CountDownLatch(1);
+        for (int context = 1; context <= CONTEXTS; ++context) {
+            List<String> result = new ArrayList<>();
+            results.add(result);
+            int number = context;
+            Thread thread = new Thread(() -> runAll(engine, script, number, start, result));
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) { thread.join(); }
+
+        for (List<String> result : results) {
+            for (String line : result) { System.out.println(line); }
+        }
+    }
+
+    private static void runAll(LoxEngine engine, LoxEngine.Script script, int context,
+                               CountDownLatch start, List<String> result) {
+        LoxEngine.Context loxContext = engine.newContext();
+        Output.Capture output = new Output.Capture();
+        loxContext.setOutput(output);
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (int run = 1; run <= RUNS; ++run) {
+            result.add("context " + context + " run " + run + ":");
+            List<String> errors = List.of();
+            try {
+                loxContext.execute(script, Map.of("context", context, "run", run));
+            } catch (LoxEngine.LoxException e) {
+                errors = e.errors();
+            }
+            String text = output.text();
+            if (!text.isEmpty()) { result.addAll(List.of(text.split("\n"))); }
+            result.addAll(errors);
+            output.clear();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+#!/bin/sh
+# Runs every test/**/*.lox and compares what it prints with the "// expect: "
+# comments of the file, in order. A file may also say
+#   // engines: tree stack    the engines it runs on, all of them by default
+#   // flags: --no-jit        jlox flags of one run, a line per run, one run without flags when there is none
+#   // main: Embed            the class run instead of Lox, from a .java file of test/ compiled with the sources
+# Without arguments the suite runs three more times with one --cache-dir: cold,
+# warm and with every entry truncated. Files in test/parser/chunks are also
+# padded past the size where --parallel-parse starts splitting sources, and must
+# print the same with and without it. Last, 100000 lines are printed with each
+# --flush policy and with --async-print.
+#
+#   test/run.sh [extra jlox flags]    runs the suite once, with these flags
+
+root=$(cd "$(dirname "$0")/.." && pwd)
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+
+javac -d "$out/classes" $(find "$root/src" "$root/test" -name '*.java') || exit 1
+
+failed=0
+
+# runs one test with the given jlox flags on every engine it asks for
+check() {
+    test=$1
+    shift
+    engines=$(sed -n 's|^// engines: *||p' "$test")
+    main=$(sed -n 's|^// main: *||p' "$test")
+    for engine in ${engines:-tree closure vm stack flat}; do
+        java -cp "$out/classes" com.craftinginterpreters.lox.${main:-Lox} --engine=$engine "$@" "$test" < /dev/null > "$out/actual" 2>&1
+        if ! diff -u "$out/expected" "$out/actual" > "$out/diff"; then
+            echo "FAIL ${test#$root/} --engine=$engine $*"
+            cat "$out/diff"
+            failed=1
+        fi
+    done
+}
+
+# runs every test with the given extra jlox flags
+suite() {
+    for test in $(find "$root/test" -name '*.lox' | sort); do
+        sed -n 's|.*// expect: ||p' "$test" > "$out/expected"
+        if   grep -q '^// flags:' "$test"; then sed -n 's|^// flags: *||p' "$test" > "$out/flags"
+        else                                   echo > "$out/flags"
+        fi
+        while read -r flags; do
+            # jlox refuses --lazy-parse with a cache, test/lazy checks that
+            case "$*" in *--cache-dir=*) case "$flags" in *--lazy-parse*) continue ;; esac ;; esac
+            check "$test" $flags "$@"
+        done < "$out/flags"
+    done
+}
+
+if [ 0 != $# ]; then
+    suite "$@"
+else
+    suite
+
+    # a cold run stores cache entries and a warm run only loads them,
+    # a truncated entry is ignored and stored again
+    cache="$out/cache"
+    suite --cache-dir="$cache"
+    if [ -z "$(find "$cache" -name '*.ast')" ]; then
+        echo "FAIL the cold --cache-dir run stored no entries"
+        failed=1
+    fi
+    touch "$out/stored"
+    suite --cache-dir="$cache"
+    if [ -n "$(find "$cache" -name '*.ast' -newer "$out/stored")" ]; then
+        echo "FAIL the warm --cache-dir run stored entries again"
+        failed=1
+    fi
+    cp -r "$cache" "$out/complete"
+    for entry in "$cache"/*.ast; do
+        head -c $(( $(wc -c < "$entry") / 2 )) "$entry" > "$out/truncated"
+        mv "$out/truncated" "$entry"
+    done
+    suite --cache-dir="$cache"
+    if ! diff -r "$out/complete" "$cache" > /dev/null; then
+        echo "FAIL truncated cache entries were not stored again"
+        failed=1
+    fi
+fi
+
+# copies of a file with padding between them, just past ParallelParser.MIN_SIZE (1 MB), so they land in different
+# chunks, then a runtime error that gives the position of a token of the last chunk
+pad() {
+    awk -v size=$((1 << 20)) -v template="$1" 'BEGIN {
+        while ((getline line < template) > 0) { text = text line "\n" }
+        for (quarter = 1; quarter <= 4; ++quarter) {
+            printf "%s", text
+            for (written += length(text); written < size * quarter / 4; written += 7) { print "1 + 2;" }
+        }
+        printf "%s", text
+        print "print -\"fails at its line and column\";"
+    }'
+}
+
+# a worker pool of 4 even on a single core, so that --parallel-parse really parses in chunks
+for template in $(find "$root/test/parser/chunks" -name '*.lox' | sort); do
+    pad "$template" > "$out/padded.lox"
+    java -cp "$out/classes" com.craftinginterpreters.lox.Lox "$@" "$out/padded.lox" < /dev/null > "$out/expected" 2>&1
+    java -Djava.util.concurrent.ForkJoinPool.common.parallelism=4 -cp "$out/classes" \
+        com.craftinginterpreters.lox.Lox --parallel-parse "$@" "$out/padded.lox" < /dev/null > "$out/actual" 2>&1
+    if ! diff -u "$out/expected" "$out/actual" > "$out/diff"; then
+        echo "FAIL padded ${template#$root/} --parallel-parse $*"
+        cat "$out/diff"
+        failed=1
+    fi
+done
+
+# more lines than the --async-print queue holds and more chars than a --flush=size buffer, all in order and before the error
+printf 'for (var i = 1; i <= 100000; i = i + 1) { print i; }\nprint -"last";\n' > "$out/lines.lox"
+{ seq 100000; echo '[2:7] [Interpreter]: Operand must be a number'; } > "$out/expected"
+for flags in --flush=line --flush=size --flush=exit --async-print "--async-print --flush=exit"; do
+    java -cp "$out/classes" com.craftinginterpreters.lox.Lox $flags "$@" "$out/lines.lox" < /dev/null > "$out/actual" 2>&1
+    if ! cmp -s "$out/expected" "$out/actual"; then
+        echo "FAIL 100000 lines $flags $*"
+        diff "$out/expected" "$out/actual" | head
+        failed=1
+    fi
+done
+
+[ 0 = $failed ] && echo "All tests passed."
+exit $failed